@@ -23,12 +23,13 @@ public class Camera {
   private Vec3 up;
   private Vec3 worldUp;
   private Vec3 front;
-  private Vec3 right;
+  private Vec3 right = new Vec3();
   
   private float yaw;
   private float pitch;
   
   private Mat4 perspective;
+  private final Mat4 view = new Mat4(1);   // rebuilt in place by getViewMatrix()
 
   public Camera(Vec3 position, Vec3 target, Vec3 up) {
     setupCamera(position, target, up);
@@ -49,6 +50,11 @@ public class Camera {
   public Vec3 getPosition() {
     return new Vec3(position);
   }
+
+  /* Copies the position into dest, for per-frame code that should not allocate */
+  public Vec3 getPositionInto(Vec3 dest) {
+    return dest.set(position);
+  }
   
   public void setPosition(Vec3 p) {
     setupCamera(p, target, up);
@@ -70,9 +76,12 @@ public class Camera {
     pitch = (float)Math.asin(v.y);
   }
 
+  /**
+   * The returned matrix is owned by the camera and is overwritten by the next call.
+   */
   public Mat4 getViewMatrix() {
-    target = Vec3.add(position, front);
-    return Mat4Transform.lookAt(position, target, up);
+    Vec3.addInto(position, front, target);
+    return Mat4Transform.setLookAt(view, position, target, up);
   }
   
   public void setPerspectiveMatrix(Mat4 m) {
@@ -86,12 +95,12 @@ public class Camera {
   public void keyboardInput(Movement movement) {
     switch (movement) {
       case NO_MOVEMENT: break;
-      case LEFT: position.add(Vec3.multiply(right, -KEYBOARD_SPEED)); break;
-      case RIGHT: position.add(Vec3.multiply(right, KEYBOARD_SPEED)); break;
-      case UP: position.add(Vec3.multiply(up, KEYBOARD_SPEED)); break;
-      case DOWN: position.add(Vec3.multiply(up, -KEYBOARD_SPEED)); break;
-      case FORWARD: position.add(Vec3.multiply(front, KEYBOARD_SPEED)); break;
-      case BACK: position.add(Vec3.multiply(front, -KEYBOARD_SPEED)); break;
+      case LEFT: position.addScaled(right, -KEYBOARD_SPEED); break;
+      case RIGHT: position.addScaled(right, KEYBOARD_SPEED); break;
+      case UP: position.addScaled(up, KEYBOARD_SPEED); break;
+      case DOWN: position.addScaled(up, -KEYBOARD_SPEED); break;
+      case FORWARD: position.addScaled(front, KEYBOARD_SPEED); break;
+      case BACK: position.addScaled(front, -KEYBOARD_SPEED); break;
     }
   }
   
@@ -114,14 +123,12 @@ public class Camera {
     front.y = (float)(sp);
     front.z = (float)(sy*cp);
     front.normalize();
-    target = Vec3.add(position,front);
+    Vec3.addInto(position, front, target);
   }
   
   private void updateCameraVectors() {  
-    right = Vec3.crossProduct(front, worldUp);
-    right.normalize();
-    up = Vec3.crossProduct(right, front);
-    up.normalize();
+    Vec3.crossProductInto(front, worldUp, right).normalize();
+    Vec3.crossProductInto(right, front, up).normalize();
   }
     
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+import java.nio.*;
+import com.jogamp.common.nio.*;
+import com.jogamp.opengl.*;
+
+/**
+ * A buffer for data that is rewritten every frame or so, e.g. instance transforms or the lights,
+ * written so the driver never has to wait for the GPU to finish with the old contents.
+ * Write with begin, fill the returned ByteBuffer from position 0, then end, which gives the byte
+ * offset the data ended up at. There are two modes:
+ *   ORPHAN  every write respecifies the whole store with glBufferData(null) and uploads at offset 0;
+ *           the driver gives the old store to the draws still using it
+ *   RING    writes follow each other through one store, mapped with GL_MAP_UNSYNCHRONIZED_BIT; the
+ *           store is split into sections and a glFenceSync is put down as each one fills, so a
+ *           section is only reused once the GPU is done with it (normally long since)
+ * Data goes through the copy-write target, so neither mode disturbs the bound VAO.
+ */
+
+public class DynamicBuffer {
+
+  public static final int ORPHAN = 0;
+  public static final int RING = 1;
+
+  private static final int SECTIONS = 4;
+
+  private final int mode;
+  private final int capacity;
+  private final int sectionBytes;
+  private final int alignment;
+  private final int[] bufferId = new int[1];
+  private final long[] fences = new long[SECTIONS];
+  private int section;             // the section RING writes are going into
+  private int head;                // where the next RING write may start
+  private ByteBuffer staging;      // ORPHAN writes are made here, then uploaded
+  private ByteBuffer writing;      // the buffer handed out by begin, until end
+  private long writeOffset;
+  private int writeBytes;
+  private long waits;              // RING writes that found their section still in use
+
+  /**
+   * Constructor.
+   *
+   * @param capacity  For ORPHAN, the size of a write. For RING, the size of the whole ring,
+   *                  SECTIONS times the largest amount written before the data must be reused.
+   * @param mode      ORPHAN or RING.
+   * @param alignment What RING offsets must be a multiple of, e.g. GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT
+   *                  for data bound with glBindBufferRange; 1 if it does not matter.
+   */
+  public DynamicBuffer(GL3 gl, int capacity, int mode, int alignment) {
+    this.mode = mode;
+    this.alignment = Math.max(alignment, 1);
+    this.sectionBytes = mode == RING ? align(capacity/SECTIONS) : capacity;
+    this.capacity = mode == RING ? sectionBytes*SECTIONS : capacity;
+    gl.glGenBuffers(1, bufferId, 0);
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, bufferId[0]);
+    gl.glBufferData(GL3.GL_COPY_WRITE_BUFFER, this.capacity, null, GL2ES2.GL_STREAM_DRAW);
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, 0);
+    if (mode == ORPHAN) staging = Buffers.newDirectByteBuffer(capacity);
+  }
+
+  /* The value of a GL_*_OFFSET_ALIGNMENT limit, for the constructor */
+  public static int getAlignment(GL3 gl, int pname) {
+    int[] value = new int[1];
+    gl.glGetIntegerv(pname, value, 0);
+    return value[0];
+  }
+
+  public int getBufferId() {
+    return bufferId[0];
+  }
+
+  /* The most that one write may hold */
+  public int getMaxWrite() {
+    return sectionBytes;
+  }
+
+  /* How often a RING write had to wait for the GPU; if this grows, the ring is too small */
+  public long getWaits() {
+    return waits;
+  }
+
+  /**
+   * Starts a write.
+   *
+   * @param bytes The most that will be written, at most getMaxWrite().
+   * @return  A buffer to put the data in, from position 0. Its contents are undefined, and
+   *          it must not be used after end.
+   */
+  public ByteBuffer begin(GL3 gl, int bytes) {
+    if (writing != null) throw new IllegalStateException("begin called twice without end");
+    if (bytes > sectionBytes) {
+      throw new IllegalArgumentException(bytes + " bytes is more than a write can hold (" + sectionBytes + ")");
+    }
+    writeBytes = bytes;
+    if (mode == ORPHAN) {
+      writeOffset = 0;
+      staging.clear();
+      writing = staging;
+      return writing;
+    }
+    int at = align(head);
+    if (at + bytes > (section + 1)*sectionBytes) {   // on to the next section, fencing off this one
+      fences[section] = gl.glFenceSync(GL3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+      section = (section + 1) % SECTIONS;
+      waitFor(gl, section);
+      at = section*sectionBytes;
+    }
+    writeOffset = at;
+    head = at + bytes;
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, bufferId[0]);
+    writing = gl.glMapBufferRange(GL3.GL_COPY_WRITE_BUFFER, at, bytes,
+                                  GL3.GL_MAP_WRITE_BIT | GL3.GL_MAP_INVALIDATE_RANGE_BIT | GL3.GL_MAP_UNSYNCHRONIZED_BIT);
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, 0);
+    if (writing == null) throw new GLException("glMapBufferRange failed: 0x" + Integer.toHexString(gl.glGetError()));
+    writing.order(ByteOrder.nativeOrder());
+    return writing;
+  }
+
+  /**
+   * Finishes the write begun by begin, uploading or unmapping the data.
+   *
+   * @return  The byte offset of the data in the buffer, for attribute pointers, glBindBufferRange or draws.
+   */
+  public long end(GL3 gl) {
+    if (writing == null) throw new IllegalStateException("end called without begin");
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, bufferId[0]);
+    if (mode == ORPHAN) {
+      staging.position(0).limit(writeBytes);
+      gl.glBufferData(GL3.GL_COPY_WRITE_BUFFER, capacity, null, GL2ES2.GL_STREAM_DRAW);
+      gl.glBufferSubData(GL3.GL_COPY_WRITE_BUFFER, 0, writeBytes, staging);
+    }
+    else {
+      gl.glUnmapBuffer(GL3.GL_COPY_WRITE_BUFFER);
+    }
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, 0);
+    writing = null;
+    return writeOffset;
+  }
+
+  /* Waits, if it has to, until the GPU has finished with everything drawn from section s */
+  private void waitFor(GL3 gl, int s) {
+    long fence = fences[s];
+    if (fence == 0) return;
+    int status = gl.glClientWaitSync(fence, 0, 0);
+    if (status == GL3.GL_TIMEOUT_EXPIRED) {
+      waits++;
+      do {
+        status = gl.glClientWaitSync(fence, GL3.GL_SYNC_FLUSH_COMMANDS_BIT, 1000000L);   // 1 ms at a time
+      } while (status == GL3.GL_TIMEOUT_EXPIRED);
+    }
+    gl.glDeleteSync(fence);
+    fences[s] = 0;
+  }
+
+  private int align(int bytes) {
+    return (bytes + alignment - 1)/alignment*alignment;
+  }
+
+  public void dispose(GL3 gl) {
+    for (int s=0; s<SECTIONS; s++) {
+      if (fences[s] != 0) gl.glDeleteSync(fences[s]);
+      fences[s] = 0;
+    }
+    gl.glDeleteBuffers(1, bufferId, 0);
+  }
+
+}
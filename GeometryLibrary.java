@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jogamp.opengl.*;
+
+/**
+ * Shares meshes between parts with the same geometry. The first acquire of some vertex and
+ * index data adds it to the MeshArena for its format; later acquires of the same data, e.g. every
+ * part built from Cube, return that Mesh, so GPU memory scales with the number of distinct shapes
+ * rather than the number of parts. New data goes through MeshOptimizer first, so duplicate
+ * vertices are welded and triangles drawn in vertex cache order. Meshes are matched by a
+ * SHA-256 digest of their contents, so the library does not keep the arrays either. Meshes
+ * can also be loaded from .mesh files, see MeshFile. Each acquire must be matched by a
+ * release, and the mesh is deleted when the last user releases it.
+ */
+
+public class GeometryLibrary {
+
+  private static final Map<String,Entry> byKey = new HashMap<String,Entry>();
+  private static final Map<Mesh,Entry> byMesh = new HashMap<Mesh,Entry>();
+
+  private GeometryLibrary() {
+  }
+
+  /**
+   * Gets the mesh for the given data, adding it to the MeshArena for its format if no current user has it.
+   * The arrays are only read, so shared arrays such as Cube.vertices need not be cloned.
+   *
+   * @param vertices Interleaved x,y,z, nx,ny,nz, s,t values, as for Mesh.
+   * @param indices  Triangle indices.
+   * @return  The shared mesh. Pass it to release when it is no longer needed.
+   */
+  public static Mesh acquire(GL3 gl, float[] vertices, int[] indices) {
+    return acquire(gl, vertices, indices, VertexFormat.COMPACT);
+  }
+
+  /* As acquire(gl, vertices, indices), storing the vertices in the given format. Meshes with
+     the same data in different formats are not shared. */
+  public static Mesh acquire(GL3 gl, float[] vertices, int[] indices, VertexFormat format) {
+    String key = format.getName() + ":" + key(vertices, indices);
+    Entry e = byKey.get(key);
+    if (e == null) {
+      MeshOptimizer.Result optimized = MeshOptimizer.optimize(vertices, indices);
+      e = new Entry(key, MeshArena.forFormat(gl, format).add(gl, optimized.vertices, optimized.indices));
+      byKey.put(key, e);
+      byMesh.put(e.mesh, e);
+    }
+    e.references++;
+    return e.mesh;
+  }
+
+  /**
+   * Gets the mesh stored in a .mesh file, loading it with MeshFile.load if no current user has it.
+   * Files are matched by their absolute path, and are expected to be optimized already.
+   *
+   * @return  The shared mesh. Pass it to release when it is no longer needed.
+   * @throws IOException if the file cannot be loaded.
+   */
+  public static Mesh acquire(GL3 gl, Path file) throws IOException {
+    String key = "file:" + file.toAbsolutePath().normalize();
+    Entry e = byKey.get(key);
+    if (e == null) {
+      e = new Entry(key, MeshFile.load(gl, file));
+      byKey.put(key, e);
+      byMesh.put(e.mesh, e);
+    }
+    e.references++;
+    return e.mesh;
+  }
+
+  /**
+   * Gives up one reference to mesh, deleting it if it was the last one.
+   * A mesh that did not come from the library is deleted straight away.
+   */
+  public static void release(GL3 gl, Mesh mesh) {
+    Entry e = byMesh.get(mesh);
+    if (e == null) {
+      mesh.dispose(gl);
+      return;
+    }
+    if (--e.references == 0) {
+      byKey.remove(e.key);
+      byMesh.remove(mesh);
+      mesh.dispose(gl);
+    }
+  }
+
+  /* The number of distinct meshes currently held */
+  public static int size() {
+    return byKey.size();
+  }
+
+  private static String key(float[] vertices, int[] indices) {
+    ByteBuffer bb = ByteBuffer.allocate(8 + 4*(vertices.length + indices.length));
+    bb.putInt(vertices.length).putInt(indices.length);
+    for (float f : vertices) {
+      bb.putInt(Float.floatToIntBits(f));
+    }
+    for (int i : indices) {
+      bb.putInt(i);
+    }
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(bb.array());
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    }
+    catch (NoSuchAlgorithmException e) {   // every Java platform must provide SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class Entry {
+    final String key;
+    final Mesh mesh;
+    int references;
+
+    Entry(String key, Mesh mesh) {
+      this.key = key;
+      this.mesh = mesh;
+    }
+  }
+
+}
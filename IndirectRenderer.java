@@ -0,0 +1,259 @@
+import gmaths.*;
+import java.nio.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jogamp.opengl.*;
+import com.jogamp.opengl.util.texture.*;
+
+/**
+ * Draws the opaque models of a frame with glMultiDrawElementsIndirect, so the CPU cost of
+ * submitting them no longer grows with the number of models. Models are handed over during the
+ * frame with ModelMultipleLights.submit and put in buckets of models that can share one call:
+ * same shader, textures, MeshArena and index type. flush then writes one DrawElementsIndirectCommand
+ * per model, and each model's matrices and material id into a shader storage buffer that
+ * vs_standard_indirect.txt reads at gl_DrawIDARB, and draws each bucket with one call.
+ * The commands and the per-draw data are streamed through DynamicBuffers, so writing them never
+ * waits on the GPU.
+ * Only create one if isSupported; otherwise draw models one at a time as before.
+ */
+
+public class IndirectRenderer {
+
+  public static final int DRAW_BINDING = 2;   // DrawBlock's binding in vs_standard_indirect.txt
+  private static final int COMMAND_BYTES = 5*Integer.BYTES;   // count, instanceCount, firstIndex, baseVertex, baseInstance
+  private static final int DRAW_BYTES = 32*Float.BYTES;       // std430 Draw: mat4, mat3 as three vec4, int, padding
+
+  private final Camera camera;
+  private final Map<Key,Bucket> buckets = new LinkedHashMap<Key,Bucket>();
+  private final Key probe = new Key();   // refilled for each lookup, so add allocates nothing
+  private final int storageAlignment;
+  private DynamicBuffer draws;   // a RING, holding two frames' draws per section
+  private ByteBuffer drawData;   // the write in progress, from draws.begin
+  private final float[] normalMatrix = new float[9];
+  private final Mat4 viewProjection = new Mat4(1);
+  private final Vec3 viewPos = new Vec3();
+  private int drawCount;
+
+  public IndirectRenderer(GL3 gl, Camera camera) {
+    this.camera = camera;
+    storageAlignment = DynamicBuffer.getAlignment(gl, GL3.GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT);
+  }
+
+  /**
+   * Whether the context can run the indirect path: GL 4.3 for multi-draw indirect and shader
+   * storage buffers, shader storage blocks in the vertex stage, and gl_DrawIDARB.
+   */
+  public static boolean isSupported(GL3 gl) {
+    if (gl.getContext().getGLVersionNumber().compareTo(GLContext.Version4_3) < 0) return false;
+    if (!gl.isExtensionAvailable("GL_ARB_shader_draw_parameters")) return false;
+    int[] blocks = new int[1];
+    gl.glGetIntegerv(GL3.GL_MAX_VERTEX_SHADER_STORAGE_BLOCKS, blocks, 0);
+    return blocks[0] > 0;
+  }
+
+  /**
+   * Queues a model to be drawn by the next flush.
+   *
+   * @return  false if the model cannot be drawn indirectly, because its mesh is not in a
+   *          MeshArena; the caller should then draw it itself.
+   */
+  boolean add(GL3 gl, ModelMultipleLights model) {
+    Bucket b = bucket(gl, model);
+    if (b == null) return false;
+    b.models.add(model);
+    drawCount++;
+    return true;
+  }
+
+  /**
+   * Makes the bucket a model will be added to, without queuing it, so that its indirect shader
+   * variant is acquired now. Call it for each model while the scene is built, before
+   * ShaderLibrary.issueAll, so the variants compile with the rest instead of in the first frame.
+   */
+  void prepare(GL3 gl, ModelMultipleLights model) {
+    bucket(gl, model);
+  }
+
+  /* The model's bucket, made on first use, or null if its mesh is not in a MeshArena */
+  private Bucket bucket(GL3 gl, ModelMultipleLights model) {
+    Mesh mesh = model.getMesh();
+    if (mesh == null || mesh.getArena() == null) return null;
+    probe.set(model.getShader(), model.getDiffuse(), model.getSpecular(), mesh.getArena(), mesh.getIndexType());
+    Bucket b = buckets.get(probe);
+    if (b == null) {
+      Key key = new Key();
+      key.set(probe.shader, probe.diffuse, probe.specular, probe.arena, probe.indexType);
+      Shader shader = ShaderLibrary.acquireIndirect(gl, model.getDiffuse(), model.getSpecular(), model.getLights());
+      b = new Bucket(gl, key, shader);
+      buckets.put(key, b);
+    }
+    return b;
+  }
+
+  /* Draws everything added since the last flush, one glMultiDrawElementsIndirect per bucket */
+  public void flush(GL3 gl) {
+    if (drawCount == 0) return;
+    int drawBytes = drawCount*DRAW_BYTES;
+    if (draws == null || draws.getMaxWrite() < drawBytes) {
+      if (draws != null) draws.dispose(gl);
+      draws = new DynamicBuffer(gl, 8*Math.max(drawBytes, 64*DRAW_BYTES), DynamicBuffer.RING, storageAlignment);
+    }
+    drawData = draws.begin(gl, drawBytes);
+    int draw = 0;
+    for (Bucket b : buckets.values()) {
+      b.firstDraw = draw;
+      for (ModelMultipleLights m : b.models) {
+        putDraw(draw++, m);
+      }
+    }
+    long offset = draws.end(gl);
+    drawData = null;
+    gl.glBindBufferRange(GL3.GL_SHADER_STORAGE_BUFFER, DRAW_BINDING, draws.getBufferId(), offset, drawBytes);
+
+    for (Bucket b : buckets.values()) {
+      if (!b.models.isEmpty()) b.writeCommands(gl);
+    }
+
+    Mat4.multiplyInto(camera.getPerspectiveMatrix(), camera.getViewMatrix(), viewProjection);
+    for (Bucket b : buckets.values()) {
+      if (b.models.isEmpty()) continue;
+      if (b.shader.isReady(gl)) {
+        b.render(gl);
+      }
+      else {   // the indirect variant is still compiling, so draw the usual way meanwhile
+        for (ModelMultipleLights m : b.models) {
+          m.render(gl);
+        }
+      }
+      b.models.clear();
+    }
+    drawCount = 0;
+  }
+
+  /* The model's entry in DrawBlock, in std430 layout */
+  private void putDraw(int i, ModelMultipleLights m) {
+    int at = i*DRAW_BYTES;
+    Mat4 model = m.getModelMatrix();
+    float[] columns = model.getColumnMajor();
+    for (int k=0; k<16; k++) {
+      drawData.putFloat(at + k*Float.BYTES, columns[k]);
+    }
+    model.normalMatrix(normalMatrix);
+    for (int c=0; c<3; c++) {
+      for (int r=0; r<3; r++) {
+        drawData.putFloat(at + (16 + c*4 + r)*Float.BYTES, normalMatrix[c*3 + r]);
+      }
+    }
+    drawData.putInt(at + 28*Float.BYTES, m.getMaterialId());
+  }
+
+  public void dispose(GL3 gl) {
+    for (Bucket b : buckets.values()) {
+      b.dispose(gl);
+    }
+    buckets.clear();
+    if (draws != null) draws.dispose(gl);
+  }
+
+  /* What models must have in common to be drawn by one call. Only the probe is changed once made. */
+  private static class Key {
+    Shader shader;
+    Texture diffuse, specular;
+    MeshArena arena;
+    int indexType;
+    int hash;
+
+    void set(Shader shader, Texture diffuse, Texture specular, MeshArena arena, int indexType) {
+      this.shader = shader;
+      this.diffuse = diffuse;
+      this.specular = specular;
+      this.arena = arena;
+      this.indexType = indexType;
+      int h = System.identityHashCode(shader);
+      h = 31*h + System.identityHashCode(diffuse);
+      h = 31*h + System.identityHashCode(specular);
+      h = 31*h + System.identityHashCode(arena);
+      hash = 31*h + indexType;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key k = (Key)o;
+      return shader == k.shader && diffuse == k.diffuse && specular == k.specular
+          && arena == k.arena && indexType == k.indexType;
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private class Bucket {
+    final Key key;
+    final Shader shader;
+    final ArrayList<ModelMultipleLights> models = new ArrayList<ModelMultipleLights>();
+    DynamicBuffer commands;   // ORPHAN, one per bucket: JOGL only takes the commands' offset 
+                              // in the buffer as a java.nio.Buffer, and null means 0
+    int firstDraw;
+    Shader handlesShader;
+    UniformHandle viewProjectionU, viewPosU, firstDrawU, firstTextureU, secondTextureU;
+
+    Bucket(GL3 gl, Key key, Shader shader) {
+      this.key = key;
+      this.shader = shader;
+    }
+
+    void writeCommands(GL3 gl) {
+      int bytes = models.size()*COMMAND_BYTES;
+      if (commands == null || commands.getMaxWrite() < bytes) {
+        if (commands != null) commands.dispose(gl);
+        commands = new DynamicBuffer(gl, Math.max(2*bytes, 16*COMMAND_BYTES), DynamicBuffer.ORPHAN, 1);
+      }
+      ByteBuffer out = commands.begin(gl, bytes);
+      for (ModelMultipleLights m : models) {
+        Mesh mesh = m.getMesh();
+        out.putInt(mesh.getIndexCount()).putInt(1)
+           .putInt((int)(mesh.getIndexOffset()/VertexFormat.indexBytes(mesh.getIndexType())))
+           .putInt(mesh.getBaseVertex()).putInt(0);
+      }
+      commands.end(gl);
+    }
+
+    void render(GL3 gl) {
+      shader.use(gl);
+      if (handlesShader != shader) {
+        viewProjectionU = shader.getUniform("viewProjection");
+        viewPosU = shader.getUniform("viewPos");
+        firstDrawU = shader.getUniform("firstDraw");
+        firstTextureU = shader.getUniform("first_texture");
+        secondTextureU = shader.getUniform("second_texture");
+        handlesShader = shader;
+      }
+      shader.setMat4(gl, viewProjectionU, viewProjection);
+      shader.setVec3(gl, viewPosU, camera.getPositionInto(viewPos));
+      shader.setInt(gl, firstDrawU, firstDraw);
+      if (key.diffuse != null) {
+        shader.setInt(gl, firstTextureU, 0);
+        gl.glActiveTexture(GL.GL_TEXTURE0);
+        key.diffuse.bind(gl);
+      }
+      if (key.specular != null) {
+        shader.setInt(gl, secondTextureU, 1);
+        gl.glActiveTexture(GL.GL_TEXTURE1);
+        key.specular.bind(gl);
+      }
+      gl.glBindBuffer(GL3.GL_DRAW_INDIRECT_BUFFER, commands.getBufferId());
+      Mesh.bindVertexArray(gl, key.arena.getVertexArray());
+      gl.glMultiDrawElementsIndirect(GL.GL_TRIANGLES, key.indexType, null, models.size(), 0);
+      gl.glBindBuffer(GL3.GL_DRAW_INDIRECT_BUFFER, 0);
+    }
+
+    void dispose(GL3 gl) {
+      if (commands != null) commands.dispose(gl);
+      ShaderLibrary.release(gl, shader);
+    }
+  }
+
+}
@@ -0,0 +1,178 @@
+import gmaths.*;
+import java.nio.*;
+import com.jogamp.common.nio.*;
+import com.jogamp.opengl.*;
+import com.jogamp.opengl.util.texture.*;
+
+/**
+ * Draws many copies of one mesh, e.g. the four legs of a table, with a single
+ * glDrawElementsInstanced call. Each instance has its own model matrix and material; these are
+ * kept in a per-instance vertex buffer that is only uploaded again after an instance has changed.
+ * The buffer is a DynamicBuffer in ORPHAN mode, so an upload while the GPU still draws the last
+ * frame's instances gets fresh storage instead of waiting. All instances share the mesh, the
+ * textures and the shader, which must be the INSTANCED variant of the standard shader (see
+ * ShaderLibrary.acquireStandard).
+ */
+
+public class InstancedModel {
+
+  // per-instance layout: model matrix (16 floats, by column), normal matrix (9 floats, by column),
+  // material id (1 int); the attribute locations match vs_standard.txt
+  private static final int MODEL_LOCATION = 3;
+  private static final int NORMAL_LOCATION = 7;
+  private static final int MATERIAL_LOCATION = 10;
+  private static final int INSTANCE_FLOATS = 16 + 9 + 1;
+  private static final int INSTANCE_BYTES = INSTANCE_FLOATS*Float.BYTES;
+
+  private String name;
+  private Mesh mesh;
+  private Shader shader;
+  private Camera camera;
+  private Texture diffuse;
+  private Texture specular;
+  private int count;
+  private final int capacity;
+  private final ByteBuffer instanceData;
+  private boolean instancesChanged = true;
+  private final float[] normalMatrix = new float[9];
+  private final Mat4 viewProjection = new Mat4(1);
+  private final Vec3 viewPos = new Vec3();
+  private DynamicBuffer instanceBuffer;
+  private int[] vertexArrayId = new int[1];
+  private int attachedVersion;   // the mesh's buffer version when the VAO was set up
+
+  private Shader handlesShader;
+  private UniformHandle viewProjectionU, viewPosU, firstTextureU, secondTextureU;
+
+  /**
+   * Constructor. The model takes over one reference to mesh and to shader, and releases them in dispose.
+   *
+   * @param capacity The largest number of instances the model will hold.
+   */
+  public InstancedModel(GL3 gl, String name, Mesh mesh, Shader shader, Camera camera,
+                        Texture diffuse, Texture specular, int capacity) {
+    this.name = name;
+    this.mesh = mesh;
+    this.shader = shader;
+    this.camera = camera;
+    this.diffuse = diffuse;
+    this.specular = specular;
+    this.capacity = capacity;
+    instanceData = Buffers.newDirectByteBuffer(capacity*INSTANCE_BYTES);
+    fillBuffers(gl);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Adds an instance.
+   *
+   * @param model    The instance's model matrix. Its current value is copied.
+   * @param material The instance's material.
+   * @return  The index of the new instance, for setModelMatrix.
+   */
+  public int addInstance(Mat4 model, Material material) {
+    if (count == capacity) throw new IllegalStateException(name + " is full (" + capacity + " instances)");
+    int i = count++;
+    instanceData.putInt(i*INSTANCE_BYTES + (INSTANCE_FLOATS-1)*Float.BYTES, MaterialLibrary.intern(material));
+    setModelMatrix(i, model);
+    return i;
+  }
+
+  /**
+   * Changes the model matrix of instance i. Call again whenever the matrix changes, since
+   * only a copy is kept; the instance buffer is uploaded once, at the next render.
+   */
+  public void setModelMatrix(int i, Mat4 model) {
+    int at = i*INSTANCE_BYTES;
+    float[] columns = model.getColumnMajor();
+    for (int k=0; k<16; k++) {
+      instanceData.putFloat(at + k*Float.BYTES, columns[k]);
+    }
+    model.normalMatrix(normalMatrix);
+    for (int k=0; k<9; k++) {
+      instanceData.putFloat(at + (16+k)*Float.BYTES, normalMatrix[k]);
+    }
+    instancesChanged = true;
+  }
+
+  public void render(GL3 gl) {
+    if (count == 0 || !shader.isReady(gl)) return;
+    shader.use(gl);
+    if (handlesShader != shader) resolveUniforms();
+    Mat4.multiplyInto(camera.getPerspectiveMatrix(), camera.getViewMatrix(), viewProjection);
+    shader.setMat4(gl, viewProjectionU, viewProjection);
+    shader.setVec3(gl, viewPosU, camera.getPositionInto(viewPos));
+    if (diffuse!=null) {
+      shader.setInt(gl, firstTextureU, 0);
+      gl.glActiveTexture(GL.GL_TEXTURE0);
+      diffuse.bind(gl);
+    }
+    if (specular!=null) {
+      shader.setInt(gl, secondTextureU, 1);
+      gl.glActiveTexture(GL.GL_TEXTURE1);
+      specular.bind(gl);
+    }
+    if (instancesChanged) {   // ORPHAN writes always land at offset 0, where the attributes point
+      instanceData.position(0).limit(count*INSTANCE_BYTES);
+      instanceBuffer.begin(gl, instanceData.limit()).put(instanceData);
+      instanceBuffer.end(gl);
+      instanceData.clear();
+      instancesChanged = false;
+    }
+    Mesh.bindVertexArray(gl, vertexArrayId[0]);
+    if (attachedVersion != mesh.getBufferVersion()) {   // the mesh's arena has replaced its buffers
+      mesh.attach(gl);
+      attachedVersion = mesh.getBufferVersion();
+    }
+    gl.glDrawElementsInstancedBaseVertex(GL.GL_TRIANGLES, mesh.getIndexCount(), mesh.getIndexType(), 
+                                         mesh.getIndexOffset(), count, mesh.getBaseVertex());
+  }
+
+  private void resolveUniforms() {
+    viewProjectionU = shader.getUniform("viewProjection");
+    viewPosU = shader.getUniform("viewPos");
+    firstTextureU = shader.getUniform("first_texture");
+    secondTextureU = shader.getUniform("second_texture");
+    handlesShader = shader;
+  }
+
+  /* A VAO with the mesh's attributes plus the per-instance ones, which advance once per instance */
+  private void fillBuffers(GL3 gl) {
+    gl.glGenVertexArrays(1, vertexArrayId, 0);
+    Mesh.bindVertexArray(gl, vertexArrayId[0]);
+    mesh.attach(gl);
+    attachedVersion = mesh.getBufferVersion();
+    instanceBuffer = new DynamicBuffer(gl, capacity*INSTANCE_BYTES, DynamicBuffer.ORPHAN, 1);
+    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, instanceBuffer.getBufferId());
+    for (int c=0; c<4; c++) {   // a mat4 attribute takes one location per column
+      int location = MODEL_LOCATION+c;
+      gl.glVertexAttribPointer(location, 4, GL.GL_FLOAT, false, INSTANCE_BYTES, (long)c*4*Float.BYTES);
+      gl.glVertexAttribDivisor(location, 1);
+      gl.glEnableVertexAttribArray(location);
+    }
+    for (int c=0; c<3; c++) {
+      int location = NORMAL_LOCATION+c;
+      gl.glVertexAttribPointer(location, 3, GL.GL_FLOAT, false, INSTANCE_BYTES, (long)(16+c*3)*Float.BYTES);
+      gl.glVertexAttribDivisor(location, 1);
+      gl.glEnableVertexAttribArray(location);
+    }
+    gl.glVertexAttribIPointer(MATERIAL_LOCATION, 1, GL3.GL_INT, INSTANCE_BYTES, (long)(INSTANCE_FLOATS-1)*Float.BYTES);
+    gl.glVertexAttribDivisor(MATERIAL_LOCATION, 1);
+    gl.glEnableVertexAttribArray(MATERIAL_LOCATION);
+  }
+
+  public void dispose(GL3 gl) {
+    instanceBuffer.dispose(gl);
+    Mesh.deleteVertexArray(gl, vertexArrayId);
+    GeometryLibrary.release(gl, mesh);
+    ShaderLibrary.release(gl, shader);
+  }
+
+}
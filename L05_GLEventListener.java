@@ -58,12 +58,14 @@ public class L05_GLEventListener implements GLEventListener {
   /* Clean up memory */
   public void dispose(GLAutoDrawable drawable) {
     GL3 gl = drawable.getGL().getGL3();
+    if (indirect != null) indirect.dispose(gl);
     room.dispose(gl);
     if (lamp != null) lamp.dispose(gl);
     if (laptop != null) laptop.dispose(gl);
     lights[0].dispose(gl);
     lights[1].dispose(gl);
     textures.destroy(gl);
+    MaterialLibrary.dispose(gl);
   }
 
   // ***************************************************
@@ -79,6 +81,7 @@ public class L05_GLEventListener implements GLEventListener {
   private Light[] lights = new Light[2];
   private Lamp lamp;
   private Laptop laptop;
+  private IndirectRenderer indirect;   // null when the context cannot draw indirectly
 
   private void loadTextures(GL3 gl) {
     textures = new TextureLibrary();
@@ -101,15 +104,26 @@ public class L05_GLEventListener implements GLEventListener {
     room = new Room(gl, camera, lights, textures.get("chequerboard"), textures.get("container_diffuse"), textures.get("cloud"));
     lamp = new Lamp(gl, camera, lights, lights[1]);
     laptop = new Laptop(gl, camera, lights);
+    if (IndirectRenderer.isSupported(gl) && !Boolean.getBoolean("noIndirect")) {
+      indirect = new IndirectRenderer(gl, camera);
+      room.prepare(gl, indirect);   // so the indirect variants are issued with the rest below
+      lamp.prepare(gl, indirect);
+      if (laptop != null) laptop.prepare(gl, indirect);
+    }
+    ShaderLibrary.issueAll(gl);   // the sources were read in the background while the scene was built
   }
   
   public void render(GL3 gl) {
     gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+    lamp.update();
+    Light.updateBlock(gl, lights);
+    MaterialLibrary.update(gl);
 
     lights[0].render(gl);
-    lamp.render(gl);
-    if (laptop != null) laptop.render(gl);
-    room.render(gl);
+    lamp.render(gl, indirect);
+    if (laptop != null) laptop.render(gl, indirect);
+    room.render(gl, indirect);
+    if (indirect != null) indirect.flush(gl);   // every opaque part that was submitted, a call per bucket
   }
 
   public void slideBase(float d) { if (lamp!=null) lamp.slideBase(d); }
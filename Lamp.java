@@ -34,7 +34,24 @@ public class Lamp {
   private float baseX = 1.75f;
   private float baseZ = -3.75f;
 
-  private ModelMultipleLights base, lowerArm, upperArm, head, leftHorn, rightHorn, bulbModel;
+  private ModelMultipleLights base, lowerArm, upperArm, head, bulbModel;
+  private InstancedModel horns;   // both horns in one draw
+
+  // joint poses relative to their parent joint: lower = base pivot, upper = elbow, head = wrist.
+  // Rotations are only rebuilt (with trigonometry) when a control changes an angle.
+  private final Transform lowerPose = new Transform(), upperPose = new Transform(), headPose = new Transform();
+  private final Transform upperWorld = new Transform(), headWorld = new Transform();
+  private final Mat4 lowerJoint = new Mat4(1), upperJoint = new Mat4(1), headJoint = new Mat4(1);
+  private boolean poseChanged = true;
+  private final Vec3 lightPos = new Vec3(), lightDir = new Vec3();
+
+  // each part's shape relative to its joint, which never changes
+  private final Mat4 armLocal, headLocal, leftHornLocal, rightHornLocal, bulbLocal;
+
+  // model matrices are rebuilt in place, and only when the pose changes
+  private final Mat4 baseTransform = new Mat4(1), lowerArmTransform = new Mat4(1), upperArmTransform = new Mat4(1);
+  private final Mat4 headTransform = new Mat4(1), leftHornTransform = new Mat4(1), rightHornTransform = new Mat4(1);
+  private final Mat4 bulbTransform = new Mat4(1);
 
   public Lamp(GL3 gl, Camera camera, Light[] lights, Light bulbLight) {
     this.camera = camera;
@@ -51,23 +68,34 @@ public class Lamp {
     lowerArm = makeArm(gl, "lower_arm");
     upperArm = makeArm(gl, "upper_arm");
     head = makeHead(gl);
-    leftHorn = makeHorn(gl, true);
-    rightHorn = makeHorn(gl, false);
+    horns = makeHorns(gl);
     bulbModel = makeBulb(gl);
     parts.add(base);
     parts.add(lowerArm);
     parts.add(upperArm);
     parts.add(head);
-    parts.add(leftHorn);
-    parts.add(rightHorn);
+
+    armLocal = Mat4Transform.trs(0, armL*0.5f, 0,  0, 0, 0,  armW, armL, armW);
+    headLocal = Mat4Transform.trs(0, headH*0.5f, -headD*0.5f,  0, 0, 0,  headW, headH, headD);
+    leftHornLocal = Mat4Transform.trs(-headW*0.5f, headH, -headD*0.2f,  0, 0, 0,  hornW, hornH, hornD);
+    rightHornLocal = Mat4Transform.trs(headW*0.5f, headH, -headD*0.2f,  0, 0, 0,  hornW, hornH, hornD);
+    bulbLocal = Mat4Transform.trs(0, 0, -headD*0.5f + bulbSize*0.25f,  0, 0, 0,  bulbSize, bulbSize, bulbSize);
+    upperPose.setPosition(0, armL, 0);
+    headPose.setPosition(0, armL, 0);
+
+    base.setModelMatrix(baseTransform);
+    lowerArm.setModelMatrix(lowerArmTransform);
+    upperArm.setModelMatrix(upperArmTransform);
+    head.setModelMatrix(headTransform);
+    bulbModel.setModelMatrix(bulbTransform);
   }
 
   private ModelMultipleLights makeBase(GL3 gl) {
     Vec3 basecolor = new Vec3(1f,1f,1f);
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f,0.3f,0.3f), 32f);
     Mat4 model = Mat4Transform.scale(baseW, baseH, baseD);
-    Mesh mesh = new Mesh(gl, Cube.vertices.clone(), Cube.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
+    Mesh mesh = GeometryLibrary.acquire(gl, Cube.vertices, Cube.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, lampTex, null, lights);
     return new ModelMultipleLights("lamp_base", mesh, model, shader, material, lights, camera, lampTex);
   }
 
@@ -75,8 +103,8 @@ public class Lamp {
     Vec3 basecolor = new Vec3(1f,1f,1f);
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f,0.3f,0.3f), 32f);
     Mat4 model = Mat4Transform.scale(armW, armL, armW);
-    Mesh mesh = new Mesh(gl, Cube.vertices.clone(), Cube.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
+    Mesh mesh = GeometryLibrary.acquire(gl, Cube.vertices, Cube.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, lampTex, null, lights);
     return new ModelMultipleLights(name, mesh, model, shader, material, lights, camera, lampTex);
   }
 
@@ -84,112 +112,69 @@ public class Lamp {
     Vec3 basecolor = new Vec3(1f,1f,1f);
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f,0.3f,0.3f), 32f);
     Mat4 model = Mat4Transform.scale(headW, headH, headD);
-    Mesh mesh = new Mesh(gl, Cube.vertices.clone(), Cube.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
+    Mesh mesh = GeometryLibrary.acquire(gl, Cube.vertices, Cube.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, lampTex, null, lights);
     return new ModelMultipleLights("lamp_head", mesh, model, shader, material, lights, camera, lampTex);
   }
 
-  private ModelMultipleLights makeHorn(GL3 gl, boolean left) {
+  private InstancedModel makeHorns(GL3 gl) {
     Vec3 basecolor = new Vec3(1f,1f,1f);
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f,0.3f,0.3f), 32f);
     Mat4 model = Mat4Transform.scale(hornW, hornH, hornD);
-    Mesh mesh = new Mesh(gl, Cube.vertices.clone(), Cube.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
-    String name = left ? "horn_left" : "horn_right";
-    return new ModelMultipleLights(name, mesh, model, shader, material, lights, camera, lampTex);
+    Mesh mesh = GeometryLibrary.acquire(gl, Cube.vertices, Cube.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, lampTex, null, lights, true);
+    InstancedModel m = new InstancedModel(gl, "lamp_horns", mesh, shader, camera, lampTex, null, 2);
+    m.addInstance(model, material);   // left, instance 0
+    m.addInstance(model, material);   // right, instance 1
+    return m;
   }
 
   private ModelMultipleLights makeBulb(GL3 gl) {
     Vec3 basecolor = new Vec3(1f,1f,1f);
     Material material = new Material(basecolor, basecolor, basecolor, 32f);
     Mat4 model = Mat4Transform.scale(bulbSize, bulbSize, bulbSize);
-    Mesh mesh = new Mesh(gl, Cube.vertices.clone(), Cube.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_0t.txt");
+    Mesh mesh = GeometryLibrary.acquire(gl, Cube.vertices, Cube.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, null, null, lights);
     return new ModelMultipleLights("lamp_bulb", mesh, model, shader, material, lights, camera);
   }
 
-  private Mat4 baseMatrix() {
-    Mat4 m = new Mat4(1);
-    m = Mat4.multiply(Mat4Transform.scale(baseW, baseH, baseD), m);
-    m = Mat4.multiply(Mat4Transform.translate(baseX, tableTop + baseH/2f, baseZ + baseSlide), m);
-    return m;
+  private void updatePoses() {
+    lowerPose.setPosition(baseX, tableTop + baseH, baseZ + baseSlide);
+    lowerPose.rotation.setEuler(lowerX, lowerY, 0);
+    upperPose.rotation.setEuler(upperX, 0, 0);
+    headPose.rotation.setEuler(headX, 0, 0);
   }
 
-  private Mat4 lowerArmMatrix() {
-    Mat4 m = new Mat4(1);
-    m = Mat4.multiply(Mat4Transform.scale(armW, armL, armW), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, armL*0.5f, 0), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(lowerX), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundY(lowerY), m);
-    m = Mat4.multiply(Mat4Transform.translate(baseX, tableTop + baseH, baseZ + baseSlide), m);
-    return m;
+  // each joint is the frame the next part hangs from
+  private void updateJoints() {
+    Transform.combine(lowerPose, upperPose, upperWorld);
+    Transform.combine(upperWorld, headPose, headWorld);
+    lowerPose.toMat4(lowerJoint);
+    upperWorld.toMat4(upperJoint);
+    headWorld.toMat4(headJoint);
   }
 
-  private Mat4 upperArmMatrix() {
-    Mat4 m = new Mat4(1);
-    m = Mat4.multiply(Mat4Transform.scale(armW, armL, armW), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, armL*0.5f, 0), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(upperX), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, armL, 0), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(lowerX), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundY(lowerY), m);
-    m = Mat4.multiply(Mat4Transform.translate(baseX, tableTop + baseH, baseZ + baseSlide), m);
-    return m;
-  }
-
-  private Mat4 headMatrix() {
-    Mat4 m = new Mat4(1);
-    m = Mat4.multiply(Mat4Transform.scale(headW, headH, headD), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, headH*0.5f, -headD*0.5f), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(headX), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, armL, 0), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(upperX), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, armL, 0), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(lowerX), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundY(lowerY), m);
-    m = Mat4.multiply(Mat4Transform.translate(baseX, tableTop + baseH, baseZ + baseSlide), m);
-    return m;
-  }
-
-  private Mat4 hornMatrix(boolean left) {
-    float xOffset = (left ? -1f : 1f) * (headW*0.5f);
-    Mat4 m = new Mat4(1);
-    m = Mat4.multiply(Mat4Transform.scale(hornW, hornH, hornD), m);
-    m = Mat4.multiply(Mat4Transform.translate(xOffset, headH, -headD*0.2f), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(headX), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, armL, 0), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(upperX), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, armL, 0), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(lowerX), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundY(lowerY), m);
-    m = Mat4.multiply(Mat4Transform.translate(baseX, tableTop + baseH, baseZ + baseSlide), m);
-    return m;
-  }
-
-  private Mat4 bulbMatrix() {
-    Mat4 m = new Mat4(1);
-    m = Mat4.multiply(Mat4Transform.scale(bulbSize, bulbSize, bulbSize), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, 0, -headD*0.5f + bulbSize*0.25f), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(headX), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, armL, 0), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(upperX), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, armL, 0), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(lowerX), m);
-    m = Mat4.multiply(Mat4Transform.rotateAroundY(lowerY), m);
-    m = Mat4.multiply(Mat4Transform.translate(baseX, tableTop + baseH, baseZ + baseSlide), m);
-    return m;
+  private void updatePartMatrices() {
+    Mat4Transform.setTRS(baseTransform, baseX, tableTop + baseH/2f, baseZ + baseSlide,  0, 0, 0,  baseW, baseH, baseD);
+    Mat4.multiplyInto(lowerJoint, armLocal, lowerArmTransform);
+    Mat4.multiplyInto(upperJoint, armLocal, upperArmTransform);
+    Mat4.multiplyInto(headJoint, headLocal, headTransform);
+    Mat4.multiplyInto(headJoint, leftHornLocal, leftHornTransform);
+    Mat4.multiplyInto(headJoint, rightHornLocal, rightHornTransform);
+    horns.setModelMatrix(0, leftHornTransform);
+    horns.setModelMatrix(1, rightHornTransform);
+    Mat4.multiplyInto(headJoint, bulbLocal, bulbTransform);
   }
 
   private void updateLight() {
-    Mat4 m = bulbMatrix();
-    Vec3 pos = new Vec3(m.get(0,3), m.get(1,3), m.get(2,3));
+    Mat4 m = bulbTransform;
+    Vec3 pos = lightPos.set(m.get(0,3), m.get(1,3), m.get(2,3));
     float totalX = lowerX + upperX + headX;
     float dirX = -(float)Math.sin(Math.toRadians(lowerY));
     float dirY = (float)Math.sin(Math.toRadians(totalX)) * (float)Math.cos(Math.toRadians(lowerY));
     float dirZ = -(float)Math.cos(Math.toRadians(totalX)) * (float)Math.cos(Math.toRadians(lowerY));
-    Vec3 direction = new Vec3(dirX, dirY, dirZ);
-    Vec3 offset = Vec3.multiply(direction, bulbSize * 0.5f);
-    pos.add(offset);
+    Vec3 direction = lightDir.set(dirX, dirY, dirZ);
+    pos.addScaled(direction, bulbSize * 0.5f);
     bulbLight.setPosition(pos);
     bulbLight.setDirection(direction);
     bulbLight.setCutOff((float)Math.cos(Math.toRadians(15f)));
@@ -197,46 +182,60 @@ public class Lamp {
     bulbLight.setOn(lightOn);
   }
 
-  public void render(GL3 gl) {
-    updateLight();
-
-    base.setModelMatrix(baseMatrix());
-    base.render(gl);
-
-    lowerArm.setModelMatrix(lowerArmMatrix());
-    lowerArm.render(gl);
+  /* Rebuilds the part matrices and moves the bulb's light if a control has changed the pose.
+     Call before Light.updateBlock so the light is current for everything drawn this frame. */
+  public void update() {
+    if (poseChanged) {
+      updatePoses();
+      updateJoints();
+      updatePartMatrices();
+      updateLight();
+      poseChanged = false;
+    }
+  }
 
-    upperArm.setModelMatrix(upperArmMatrix());
-    upperArm.render(gl);
+  public void render(GL3 gl) {
+    render(gl, null);
+  }
 
-    head.setModelMatrix(headMatrix());
-    head.render(gl);
+  /* As render, but the parts go to batch if it is not null, see IndirectRenderer */
+  public void render(GL3 gl, IndirectRenderer batch) {
+    update();
 
-    leftHorn.setModelMatrix(hornMatrix(true));
-    leftHorn.render(gl);
-    rightHorn.setModelMatrix(hornMatrix(false));
-    rightHorn.render(gl);
+    base.submit(gl, batch);
+    lowerArm.submit(gl, batch);
+    upperArm.submit(gl, batch);
+    head.submit(gl, batch);
+    horns.render(gl);
 
     if (lightOn) {
-      bulbModel.setModelMatrix(bulbMatrix());
-      bulbModel.render(gl);
+      bulbModel.submit(gl, batch);
+    }
+  }
+
+  /* Makes the parts' buckets in batch ahead of the first frame, see IndirectRenderer.prepare */
+  public void prepare(GL3 gl, IndirectRenderer batch) {
+    for (ModelMultipleLights m : parts) {
+      batch.prepare(gl, m);
     }
+    batch.prepare(gl, bulbModel);   // even while the light is off, so switching it on costs nothing
   }
 
   public void dispose(GL3 gl) {
     for (ModelMultipleLights m : parts) {
       m.dispose(gl);
     }
+    horns.dispose(gl);
     bulbModel.dispose(gl);
     lampTex.destroy(gl);
   }
 
   // control methods
-  public void slideBase(float d) { baseSlide += d; }
-  public void rotateLowerArmX(float d) { lowerX += d; }
-  public void rotateLowerArmY(float d) { lowerY += d; }
-  public void rotateUpperArmX(float d) { upperX += d; }
-  public void rotateHeadX(float d) { headX += d; }
-  public void toggleLight() { lightOn = !lightOn; }
+  public void slideBase(float d) { baseSlide += d; poseChanged = true; }
+  public void rotateLowerArmX(float d) { lowerX += d; poseChanged = true; }
+  public void rotateLowerArmY(float d) { lowerY += d; poseChanged = true; }
+  public void rotateUpperArmX(float d) { upperX += d; poseChanged = true; }
+  public void rotateHeadX(float d) { headX += d; poseChanged = true; }
+  public void toggleLight() { lightOn = !lightOn; poseChanged = true; }
 }
 
@@ -24,6 +24,10 @@ public class Laptop {
 
   private float lidAngle = 90f; 
 
+  // model matrices are rebuilt in place every frame so that rendering allocates nothing
+  private final Mat4 step = new Mat4(1);
+  private final Mat4 baseTransform = new Mat4(1), lidTransform = new Mat4(1);
+
   public Laptop(GL3 gl, Camera camera, Light[] lights) {
     this.camera = camera;
     this.lights = lights;
@@ -39,8 +43,8 @@ public class Laptop {
     Vec3 basecolor = new Vec3(1f,1f,1f);
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f,0.3f,0.3f), 32f);
     Mat4 model = Mat4Transform.scale(baseW, baseH, baseD);
-    Mesh mesh = new Mesh(gl, Cube.vertices.clone(), Cube.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
+    Mesh mesh = GeometryLibrary.acquire(gl, Cube.vertices, Cube.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, keyboardTex, null, lights);
     return new ModelMultipleLights("laptop_base", mesh, model, shader, material, lights, camera, keyboardTex);
   }
 
@@ -48,33 +52,37 @@ public class Laptop {
     Vec3 basecolor = new Vec3(1f,1f,1f);
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f,0.3f,0.3f), 32f);
     Mat4 model = Mat4Transform.scale(baseW, lidH, baseD);
-    Mesh mesh = new Mesh(gl, Cube.vertices.clone(), Cube.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
+    Mesh mesh = GeometryLibrary.acquire(gl, Cube.vertices, Cube.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, screenTex, null, lights);
     return new ModelMultipleLights("laptop_lid", mesh, model, shader, material, lights, camera, screenTex);
   }
 
-  private Mat4 baseMatrix() {
-    Mat4 m = new Mat4(1);
-    m = Mat4.multiply(Mat4Transform.scale(baseW, baseH, baseD), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, tableTop + baseH/2f, tableZ), m);
-    return m;
+  private Mat4 baseMatrix(Mat4 m) {
+    return Mat4Transform.setTRS(m, 0, tableTop + baseH/2f, tableZ,  0, 0, 0,  baseW, baseH, baseD);
   }
 
-  private Mat4 lidMatrix() {
-    Mat4 m = new Mat4(1);
-    m = Mat4.multiply(Mat4Transform.scale(baseW, lidH, baseD), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, lidH*0.5f, baseD*0.5f), m);
-    // rotate lid so positive angles open it upward 
-    m = Mat4.multiply(Mat4Transform.rotateAroundX(-lidAngle), m);
-    m = Mat4.multiply(Mat4Transform.translate(0, tableTop + baseH, tableZ - baseD*0.5f), m);
-    return m;
+  private Mat4 lidMatrix(Mat4 m) {
+    // hinge at the back edge of the base; rotate lid so positive angles open it upward 
+    Mat4Transform.setTRS(m, 0, tableTop + baseH, tableZ - baseD*0.5f,  -lidAngle, 0, 0,  1, 1, 1);
+    return m.postMultiply(Mat4Transform.setTRS(step, 0, lidH*0.5f, baseD*0.5f,  0, 0, 0,  baseW, lidH, baseD));
   }
 
   public void render(GL3 gl) {
-    base.setModelMatrix(baseMatrix());
-    base.render(gl);
-    lid.setModelMatrix(lidMatrix());
-    lid.render(gl);
+    render(gl, null);
+  }
+
+  /* As render, but the parts go to batch if it is not null, see IndirectRenderer */
+  public void render(GL3 gl, IndirectRenderer batch) {
+    base.setModelMatrix(baseMatrix(baseTransform));
+    base.submit(gl, batch);
+    lid.setModelMatrix(lidMatrix(lidTransform));
+    lid.submit(gl, batch);
+  }
+
+  /* Makes the parts' buckets in batch ahead of the first frame, see IndirectRenderer.prepare */
+  public void prepare(GL3 gl, IndirectRenderer batch) {
+    batch.prepare(gl, base);
+    batch.prepare(gl, lid);
   }
 
   public void dispose(GL3 gl) {
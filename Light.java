@@ -4,6 +4,19 @@ import com.jogamp.common.nio.*;
 import com.jogamp.opengl.*;
   
 public class Light {
+
+  // The LightBlock uniform buffer (std140, see fs_standard.txt) is shared by every program that
+  // declares the block. It is created with the first Light and deleted with the last one. Each
+  // frame's lights go to the next part of a DynamicBuffer ring, so the upload never waits on the GPU.
+  public static final int MAX_LIGHTS = 16;
+  public static final int BLOCK_BINDING = 0;
+  private static final int HEADER_BYTES = 16;           // int numLights, padded to a vec4
+  private static final int LIGHT_BYTES = 6*4*Float.BYTES; // six vec4s per light
+  private static final int BLOCK_BYTES = HEADER_BYTES + MAX_LIGHTS*LIGHT_BYTES;
+  private static final int BLOCK_FRAMES = 16;           // frames of lights the ring holds
+  private static DynamicBuffer block;
+  private static ByteBuffer blockData;                  // the write in progress, from block.begin
+  private static int blockUsers;
   
   private Material material;
   private Vec3 position;
@@ -12,7 +25,10 @@ public class Light {
   private float outerCutOff;
   private boolean on;
   private Mat4 model;
+  private final Mat4 step = new Mat4(1);
+  private final Mat4 mvpMatrix = new Mat4(1);
   private Shader shader;
+  private UniformHandle mvpMatrixU;
   private Camera camera;
   
     
@@ -29,7 +45,8 @@ public class Light {
     model = new Mat4(1);
     
     fillBuffers(gl);
-    shader = new Shader(gl, "assets/shaders/vs_light_01.txt", "assets/shaders/fs_light_01.txt");
+    if (blockUsers++ == 0) createBlock(gl);
+    shader = ShaderLibrary.acquire(gl, "assets/shaders/vs_light_01.txt", "assets/shaders/fs_light_01.txt");
   }
   
   public void setPosition(Vec3 v) {
@@ -61,7 +78,7 @@ public class Light {
   }
 
   public void setDirection(Vec3 d) {
-    direction = new Vec3(d);
+    direction.set(d);
     direction.normalize();
   }
 
@@ -96,25 +113,72 @@ public class Light {
 
   
   public void render(GL3 gl) { 
-    Mat4 model = new Mat4(1);
-    model = Mat4.multiply(Mat4Transform.scale(0.3f,0.3f,0.3f), model);
-    model = Mat4.multiply(Mat4Transform.translate(position), model);
+    if (!shader.isReady(gl)) return;
+    Mat4Transform.setScale(model, 0.3f,0.3f,0.3f);
+    model.preMultiply(Mat4Transform.setTranslate(step, position.x, position.y, position.z));
     
-    Mat4 mvpMatrix = Mat4.multiply(camera.getPerspectiveMatrix(), Mat4.multiply(camera.getViewMatrix(), model));
+    Mat4.multiplyInto(camera.getViewMatrix(), model, mvpMatrix);
+    mvpMatrix.preMultiply(camera.getPerspectiveMatrix());
     
+    if (mvpMatrixU == null) mvpMatrixU = shader.getUniform("mvpMatrix");
     shader.use(gl);
-    shader.setFloatArray(gl, "mvpMatrix", mvpMatrix.toFloatArrayForGLSL());
+    shader.setMat4(gl, mvpMatrixU, mvpMatrix);
   
-    gl.glBindVertexArray(vertexArrayId[0]);
+    Mesh.bindVertexArray(gl, vertexArrayId[0]);
     
     gl.glDrawElements(GL.GL_TRIANGLES, indices.length, GL.GL_UNSIGNED_INT, 0);
-    gl.glBindVertexArray(0);
   }
 
   public void dispose(GL3 gl) {
     gl.glDeleteBuffers(1, vertexBufferId, 0);
-    gl.glDeleteVertexArrays(1, vertexArrayId, 0);
+    Mesh.deleteVertexArray(gl, vertexArrayId);
     gl.glDeleteBuffers(1, elementBufferId, 0);
+    ShaderLibrary.release(gl, shader);
+    if (--blockUsers == 0) {
+      block.dispose(gl);
+      block = null;
+    }
+  }
+
+  /**
+   * Packs the lights that are on into the LightBlock buffer. Call once per frame, after the
+   * lights have moved and before anything lit is drawn; no program needs any per-draw upload.
+   * Lights beyond MAX_LIGHTS are ignored.
+   *
+   * @param lights The scene's lights.
+   */
+  public static void updateBlock(GL3 gl, Light[] lights) {
+    blockData = block.begin(gl, BLOCK_BYTES);
+    int n = 0;
+    for (Light light : lights) {
+      if (!light.on) continue;
+      if (n == MAX_LIGHTS) break;
+      int at = HEADER_BYTES + n*LIGHT_BYTES;
+      Material m = light.material;
+      at = putVec4(at, light.position, 1);
+      at = putVec4(at, light.direction, 0);
+      at = putVec4(at, m.getAmbient(), 0);
+      at = putVec4(at, m.getDiffuse(), 0);
+      at = putVec4(at, m.getSpecular(), 0);
+      blockData.putFloat(at, light.cutOff).putFloat(at+4, light.outerCutOff).putFloat(at+8, 0).putFloat(at+12, 0);
+      n++;
+    }
+    blockData.putInt(0, n);
+    long offset = block.end(gl);
+    blockData = null;
+    // the range must cover the whole block as declared, though only the lights that are on were written
+    gl.glBindBufferRange(GL3.GL_UNIFORM_BUFFER, BLOCK_BINDING, block.getBufferId(), offset, BLOCK_BYTES);
+  }
+
+  private static int putVec4(int at, Vec3 v, float w) {
+    blockData.putFloat(at, v.x).putFloat(at+4, v.y).putFloat(at+8, v.z).putFloat(at+12, w);
+    return at+16;
+  }
+
+  private static void createBlock(GL3 gl) {
+    int alignment = DynamicBuffer.getAlignment(gl, GL3.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT);
+    int slot = (BLOCK_BYTES + alignment - 1)/alignment*alignment;
+    block = new DynamicBuffer(gl, BLOCK_FRAMES*slot, DynamicBuffer.RING, alignment);
   }
 
     // ***************************************************
@@ -161,7 +225,7 @@ public class Light {
     
   private void fillBuffers(GL3 gl) {
     gl.glGenVertexArrays(1, vertexArrayId, 0);
-    gl.glBindVertexArray(vertexArrayId[0]);
+    Mesh.bindVertexArray(gl, vertexArrayId[0]);
     gl.glGenBuffers(1, vertexBufferId, 0);
     gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBufferId[0]);
     FloatBuffer fb = Buffers.newDirectFloatBuffer(vertices);
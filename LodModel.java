@@ -0,0 +1,151 @@
+import gmaths.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import com.jogamp.opengl.*;
+
+/**
+ * Draws a ModelMultipleLights with one of several levels of detail made by MeshSimplifier,
+ * chosen each frame from how large the model's bounding sphere appears on screen. A level is
+ * used while its simplification error would project to at most ERROR_TOLERANCE of the screen
+ * height, so distant models cost few triangles and near ones get the full mesh. To stop a model
+ * that sits near a threshold from switching back and forth, it only drops to a coarser level once
+ * it is HYSTERESIS smaller than the threshold; it goes back to a finer level straight away.
+ * Building the levels takes a while for large meshes, so they are best made offline by
+ * ObjImporter and loaded from the .mesh file.
+ */
+
+public class LodModel {
+
+  public static final float ERROR_TOLERANCE = 0.001f;   // of the screen height, about a pixel at 1000 pixels
+  public static final float HYSTERESIS = 0.2f;
+
+  private static final int F = VertexFormat.INPUT_FLOATS;
+
+  private final ModelMultipleLights model;
+  private final Camera camera;
+  private final Mesh[] meshes;
+  private final float[] maxSizes;   // per level, the largest projected size it may be drawn at
+  private final BoundingSphere bounds;
+  private final BoundingSphere worldBounds = new BoundingSphere();
+  private final Vec3 eye = new Vec3();
+  private int level;
+
+  /**
+   * Constructor. The data is welded, the levels are built from it, and their meshes come from
+   * GeometryLibrary, so models made from the same data share them. The model takes over the
+   * meshes; any mesh it already had is released.
+   *
+   * @param model    The model to draw. Its material, textures, shader and matrix are used as they are.
+   * @param vertices x,y,z, nx,ny,nz, s,t for each vertex.
+   * @param indices  Triangle indices.
+   */
+  public LodModel(GL3 gl, ModelMultipleLights model, Camera camera, float[] vertices, int[] indices) {
+    this(gl, model, camera, build(gl, vertices, indices));
+  }
+
+  /**
+   * Constructor for levels stored in a .mesh file by ObjImporter, see MeshFile.loadLevels.
+   * The meshes are the model's own rather than GeometryLibrary's.
+   *
+   * @throws IOException if the file cannot be loaded.
+   */
+  public LodModel(GL3 gl, ModelMultipleLights model, Camera camera, Path file) throws IOException {
+    this(gl, model, camera, MeshFile.loadLevels(gl, file));
+  }
+
+  private LodModel(GL3 gl, ModelMultipleLights model, Camera camera, MeshFile.Levels levels) {
+    this.model = model;
+    this.camera = camera;
+    meshes = levels.meshes;
+    bounds = levels.bounds;
+    maxSizes = new float[meshes.length];
+    for (int i=0; i<meshes.length; i++) {
+      // an error e projects to e*p/(2d) of the screen height at distance d, where p is the
+      // perspective matrix's (1,1); the sphere's size is r*p/d, so e is within tolerance while
+      // the size is at most 2*tolerance*r/e, whatever the distance and the field of view
+      float error = levels.errors[i];
+      maxSizes[i] = error == 0 ? Float.MAX_VALUE : 2*ERROR_TOLERANCE*bounds.radius/error;
+    }
+    if (model.getMesh() != null) GeometryLibrary.release(gl, model.getMesh());
+    model.setMesh(meshes[0]);
+  }
+
+  private static MeshFile.Levels build(GL3 gl, float[] vertices, int[] indices) {
+    MeshOptimizer.Result welded = MeshOptimizer.weld(vertices, indices);   // duplicates would be pinned as seams
+    vertices = welded.vertices;
+    MeshSimplifier.Level[] levels = MeshSimplifier.buildLevels(vertices, welded.indices);
+    Mesh[] meshes = new Mesh[levels.length];
+    float[] errors = new float[levels.length];
+    for (int i=0; i<levels.length; i++) {
+      meshes[i] = GeometryLibrary.acquire(gl, vertices, levels[i].indices);
+      errors[i] = levels[i].error;
+    }
+    BoundingSphere bounds = BoundingSphere.fromAABB(AABB.fromPoints(vertices, F, vertices.length/F));
+    return new MeshFile.Levels(meshes, errors, bounds);
+  }
+
+  public ModelMultipleLights getModel() {
+    return model;
+  }
+
+  public int getLevelCount() {
+    return meshes.length;
+  }
+
+  /* The level drawn last, 0 being the full mesh */
+  public int getLevel() {
+    return level;
+  }
+
+  public void render(GL3 gl) {
+    selectLevel();
+    model.render(gl);
+  }
+
+  /* As ModelMultipleLights.submit, at the level for the current view */
+  public void submit(GL3 gl, IndirectRenderer batch) {
+    selectLevel();
+    model.submit(gl, batch);
+  }
+
+  private void selectLevel() {
+    float size = projectedSize();
+    int wanted = levelFor(size);
+    if (wanted < level) {
+      level = wanted;
+    }
+    else if (wanted > level) {
+      level = Math.max(level, levelFor(size*(1 + HYSTERESIS)));
+    }
+    model.setMesh(meshes[level]);
+  }
+
+  /* The coarsest level that may be drawn at the given size */
+  private int levelFor(float size) {
+    int l = 0;
+    while (l+1 < maxSizes.length && maxSizes[l+1] >= size) l++;
+    return l;
+  }
+
+  /* The bounding sphere's diameter as a fraction of the screen height, roughly */
+  private float projectedSize() {
+    Mat4 perspective = camera.getPerspectiveMatrix();
+    if (perspective == null) return Float.MAX_VALUE;
+    bounds.transform(model.getModelMatrix(), worldBounds);
+    camera.getPositionInto(eye);
+    float dx = worldBounds.centre.x - eye.x, dy = worldBounds.centre.y - eye.y, dz = worldBounds.centre.z - eye.z;
+    float distance = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+    if (distance <= worldBounds.radius) return Float.MAX_VALUE;
+    return worldBounds.radius*perspective.get(1,1)/distance;
+  }
+
+  // the model is given back the full mesh, which it releases with its shader; the other levels are released here
+  public void dispose(GL3 gl) {
+    model.setMesh(meshes[0]);
+    for (int i=1; i<meshes.length; i++) {
+      GeometryLibrary.release(gl, meshes[i]);
+    }
+    model.dispose(gl);
+  }
+
+}
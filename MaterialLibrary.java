@@ -0,0 +1,123 @@
+import gmaths.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.*;
+
+/**
+ * Keeps one copy of each distinct material in a table on the GPU, the MaterialBlock uniform
+ * buffer (std140, see fs_standard.txt). Materials with the same values get the same id, so a
+ * draw only has to pass the id, and the id doubles as a compact key to sort and batch draws by.
+ * The table is append-only: an id stays valid until dispose, even if the Material object it was
+ * made from is later changed (intern it again to get an id for the new values).
+ */
+
+public class MaterialLibrary {
+
+  public static final int MAX_MATERIALS = 128;
+  public static final int BLOCK_BINDING = 1;
+  private static final int MATERIAL_FLOATS = 16;   // ambient, diffuse, specular, (shininess,0,0,0)
+
+  private static final Map<Key,Integer> ids = new HashMap<Key,Integer>();
+  private static final float[] table = new float[MAX_MATERIALS*MATERIAL_FLOATS];
+  private static int count;
+  private static int uploaded;   // materials [0, uploaded) are already in the buffer
+  private static final int[] bufferId = new int[1];
+  private static ByteBuffer uploadData;
+
+  private MaterialLibrary() {
+  }
+
+  /**
+   * Gets the id for the current values of m, adding them to the table if they are new.
+   *
+   * @param m The material.
+   * @return  The index of the material in the MaterialBlock table.
+   * @throws IllegalStateException if there are already MAX_MATERIALS distinct materials.
+   */
+  public static int intern(Material m) {
+    float[] v = new float[MATERIAL_FLOATS];
+    put(v, 0, m.getAmbient());
+    put(v, 4, m.getDiffuse());
+    put(v, 8, m.getSpecular());
+    v[12] = m.getShininess();
+    Key key = new Key(v);
+    Integer id = ids.get(key);
+    if (id != null) return id;
+    if (count == MAX_MATERIALS) {
+      throw new IllegalStateException("more than " + MAX_MATERIALS + " distinct materials");
+    }
+    System.arraycopy(v, 0, table, count*MATERIAL_FLOATS, MATERIAL_FLOATS);
+    ids.put(key, count);
+    return count++;
+  }
+
+  /* The number of distinct materials */
+  public static int size() {
+    return count;
+  }
+
+  /**
+   * Uploads any materials added since the last call, creating the buffer the first time.
+   * Call once per frame before drawing; it does nothing when no material is new.
+   */
+  public static void update(GL3 gl) {
+    if (bufferId[0] == 0) {
+      gl.glGenBuffers(1, bufferId, 0);
+      gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, bufferId[0]);
+      gl.glBufferData(GL3.GL_UNIFORM_BUFFER, (long)table.length*Float.BYTES, null, GL.GL_STATIC_DRAW);
+      gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, 0);
+      gl.glBindBufferBase(GL3.GL_UNIFORM_BUFFER, BLOCK_BINDING, bufferId[0]);
+      uploadData = Buffers.newDirectByteBuffer(table.length*Float.BYTES);
+      uploaded = 0;
+    }
+    if (uploaded == count) return;
+    int from = uploaded*MATERIAL_FLOATS, n = (count-uploaded)*MATERIAL_FLOATS;
+    uploadData.clear();
+    uploadData.asFloatBuffer().put(table, from, n);
+    uploadData.limit(n*Float.BYTES);
+    gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, bufferId[0]);
+    gl.glBufferSubData(GL3.GL_UNIFORM_BUFFER, (long)from*Float.BYTES, (long)n*Float.BYTES, uploadData);
+    gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, 0);
+    uploaded = count;
+  }
+
+  /* Deletes the buffer and forgets every material */
+  public static void dispose(GL3 gl) {
+    if (bufferId[0] != 0) {
+      gl.glDeleteBuffers(1, bufferId, 0);
+      bufferId[0] = 0;
+    }
+    ids.clear();
+    count = 0;
+    uploaded = 0;
+  }
+
+  private static void put(float[] v, int at, Vec3 c) {
+    v[at] = c.x;
+    v[at+1] = c.y;
+    v[at+2] = c.z;
+  }
+
+  private static class Key {
+    final float[] values;
+    final int hash;
+
+    Key(float[] values) {
+      this.values = values;
+      this.hash = Arrays.hashCode(values);
+    }
+
+    public boolean equals(Object o) {
+      return (o instanceof Key) && Arrays.equals(values, ((Key)o).values);
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+}
@@ -4,70 +4,156 @@ import com.jogamp.common.nio.*;
 import com.jogamp.opengl.*;
 
 public class Mesh {
+
+  private static int boundVertexArray;   // the VAO last bound through bindVertexArray
   
-  private float[] vertices;
+  private float[] vertices;   // only held until the data is on the GPU
   private int[] indices;
-  private int vertexStride = 8;
-  private int vertexXYZFloats = 3;
-  private int vertexNormalFloats = 3;
-  private int vertexTexFloats = 2;
+  private final VertexFormat format;
+  private final MeshArena arena;   // null when the mesh has buffers of its own
+  private int vertexCount;
+  private int indexCount;
+  private int indexType;
+  private int baseVertex;          // where the mesh starts in the arena's buffers
+  private long indexOffset;        // in bytes
   private int[] vertexBufferId = new int[1];
   private int[] vertexArrayId = new int[1];
   private int[] elementBufferId = new int[1];
   
+  /* A mesh with buffers of its own, storing the vertices in VertexFormat.COMPACT. The arrays are not 
+     kept after they have been uploaded. Prefer GeometryLibrary.acquire, which shares one Mesh between 
+     all parts with the same data and keeps all meshes in a MeshArena. */
   public Mesh(GL3 gl, float[] vertices, int[] indices) {
+    this(gl, vertices, indices, VertexFormat.COMPACT);
+  }
+
+  /**
+   * Constructor. The indices are stored as bytes, shorts or ints, whichever is the smallest
+   * that can address every vertex.
+   *
+   * @param vertices x,y,z, nx,ny,nz, s,t for each vertex.
+   * @param indices  Triangle indices.
+   * @param format   How the vertices are stored on the GPU.
+   */
+  public Mesh(GL3 gl, float[] vertices, int[] indices, VertexFormat format) {
     this.vertices = vertices;
     this.indices = indices;
+    this.format = format;
+    arena = null;
+    vertexCount = vertices.length/VertexFormat.INPUT_FLOATS;
+    indexCount = indices.length;
+    indexType = VertexFormat.indexType(vertexCount);
     fillBuffers(gl);
+    this.vertices = null;
+    this.indices = null;
+  }
+
+  /* A mesh whose data MeshArena.add has already put in the arena's buffers */
+  Mesh(MeshArena arena, int vertexCount, int indexCount, int indexType, int baseVertex, long indexOffset) {
+    this.arena = arena;
+    this.format = arena.getFormat();
+    this.vertexCount = vertexCount;
+    this.indexCount = indexCount;
+    this.indexType = indexType;
+    place(baseVertex, indexOffset);
+  }
+
+  /* Called by the arena when compaction moves the mesh */
+  void place(int baseVertex, long indexOffset) {
+    this.baseVertex = baseVertex;
+    this.indexOffset = indexOffset;
+  }
+
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  public int getIndexCount() {
+    return indexCount;
+  }
+
+  /* GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT or GL_UNSIGNED_INT, for glDrawElements */
+  public int getIndexType() {
+    return indexType;
+  }
+
+  public VertexFormat getFormat() {
+    return format;
+  }
+
+  /* The value to add to every index, for the base-vertex draw calls */
+  public int getBaseVertex() {
+    return baseVertex;
+  }
+
+  /* The byte offset of the first index in the index buffer */
+  public long getIndexOffset() {
+    return indexOffset;
+  }
+
+  /* The arena the mesh lives in, or null if it has buffers of its own */
+  MeshArena getArena() {
+    return arena;
+  }
+
+  /* Changes whenever the buffers that attach uses are replaced, so a VAO built with attach must attach again */
+  public int getBufferVersion() {
+    return arena == null ? 0 : arena.getVersion();
   }
   
+  /* The VAO is left bound, so consecutive draws of meshes in the same arena do not rebind it */
   public void render(GL3 gl) {
-    gl.glBindVertexArray(vertexArrayId[0]);
-    gl.glDrawElements(GL.GL_TRIANGLES, indices.length, GL.GL_UNSIGNED_INT, 0);
-    gl.glBindVertexArray(0);
+    bindVertexArray(gl, arena == null ? vertexArrayId[0] : arena.getVertexArray());
+    gl.glDrawElementsBaseVertex(GL.GL_TRIANGLES, indexCount, indexType, indexOffset, baseVertex);
+  }
+
+  /* Binds vao unless it is already bound. All VAO binds should go through here so the check stays correct. */
+  static void bindVertexArray(GL3 gl, int vao) {
+    if (boundVertexArray == vao) return;
+    gl.glBindVertexArray(vao);
+    boundVertexArray = vao;
+  }
+
+  static void deleteVertexArray(GL3 gl, int[] vao) {
+    if (boundVertexArray == vao[0]) bindVertexArray(gl, 0);
+    gl.glDeleteVertexArrays(1, vao, 0);
   }
 
   private void fillBuffers(GL3 gl) {
     gl.glGenVertexArrays(1, vertexArrayId, 0);
-    gl.glBindVertexArray(vertexArrayId[0]);
+    bindVertexArray(gl, vertexArrayId[0]);
     gl.glGenBuffers(1, vertexBufferId, 0);
     gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBufferId[0]);
-    FloatBuffer fb = Buffers.newDirectFloatBuffer(vertices);
-    
-    gl.glBufferData(GL.GL_ARRAY_BUFFER, Float.BYTES * vertices.length, fb, GL.GL_STATIC_DRAW);
-    
-    int stride = vertexStride;
-    int numXYZFloats = vertexXYZFloats;
-    int offset = 0;
-    gl.glVertexAttribPointer(0, numXYZFloats, GL.GL_FLOAT, false, stride*Float.BYTES, offset);
-    gl.glEnableVertexAttribArray(0);
-  
-    int numNormalFloats = vertexNormalFloats; // x,y,z for each vertex 
-    offset = numXYZFloats*Float.BYTES;  // the normal values are three floats after the three x,y,z values
-                                    // so change the offset value
-    gl.glVertexAttribPointer(1, numNormalFloats, GL.GL_FLOAT, false, stride*Float.BYTES, offset);
-                                    // the vertex shader uses location 1 (sometimes called index 1)
-                                    // for the normal information
-                                    // location, size, type, normalize, stride, offset
-                                    // offset is relative to the start of the array of data
-    gl.glEnableVertexAttribArray(1);// Enable the vertex attribute array at location 1
-
-    // now do the texture coordinates  in vertex attribute 2
-    int numTexFloats = vertexTexFloats;
-    offset = (numXYZFloats+numNormalFloats)*Float.BYTES;
-    gl.glVertexAttribPointer(2, numTexFloats, GL.GL_FLOAT, false, stride*Float.BYTES, offset);
-    gl.glEnableVertexAttribArray(2);
+    ByteBuffer vb = format.pack(vertices);
+    gl.glBufferData(GL.GL_ARRAY_BUFFER, vb.limit(), vb, GL.GL_STATIC_DRAW);
     
     gl.glGenBuffers(1, elementBufferId, 0);
-    IntBuffer ib = Buffers.newDirectIntBuffer(indices);
+    ByteBuffer ib = VertexFormat.packIndices(indices, indexType);
+    gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, elementBufferId[0]);
+    gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, ib.limit(), ib, GL.GL_STATIC_DRAW);
+    attach(gl);
+  }
+
+  /* Sets up vertex attributes 0-2 from this mesh's vertex buffer, and attaches its index buffer, 
+     in whichever VAO is bound. InstancedModel uses this to build a VAO that also has per-instance 
+     attributes, sharing this mesh's buffers. Draw with getBaseVertex and getIndexOffset. */
+  void attach(GL3 gl) {
+    if (arena != null) {
+      arena.attach(gl);
+      return;
+    }
+    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBufferId[0]);
+    format.setAttributes(gl, 0);
     gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, elementBufferId[0]);
-    gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, Integer.BYTES * indices.length, ib, GL.GL_STATIC_DRAW);
-    //gl.glBindVertexArray(0); // remove this so shader can be validated. Should be ok as any new object will bind its own VAO
   }
   
   public void dispose(GL3 gl) {
+    if (arena != null) {
+      arena.remove(gl, this);
+      return;
+    }
     gl.glDeleteBuffers(1, vertexBufferId, 0);
-    gl.glDeleteVertexArrays(1, vertexArrayId, 0);
+    deleteVertexArray(gl, vertexArrayId);
     gl.glDeleteBuffers(1, elementBufferId, 0);
   }
   
@@ -0,0 +1,306 @@
+import java.nio.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.jogamp.opengl.*;
+
+/**
+ * Keeps every mesh of one VertexFormat in a single vertex buffer and a single index buffer,
+ * behind a single VAO. Each mesh's indices are relative to its own first vertex and are drawn
+ * with glDrawElementsBaseVertex, so going from one mesh to the next needs no VAO bind: the VAO
+ * is bound once per format per frame. Space comes from first-fit free lists and is given back
+ * when a mesh is disposed. The buffers grow when they are full, and are compacted when the holes
+ * left by disposed meshes are larger than the space still in use.
+ */
+
+public class MeshArena {
+
+  private static final Map<VertexFormat,MeshArena> arenas = new HashMap<VertexFormat,MeshArena>();
+
+  private static final int INITIAL_VERTICES = 4096;
+  private static final int INITIAL_INDEX_BYTES = 16384;
+  private static final int INDEX_ALIGNMENT = 4;   // so offsets suit every index type
+
+  private final VertexFormat format;
+  private final Ranges vertexRanges = new Ranges(INITIAL_VERTICES);
+  private final Ranges indexRanges = new Ranges(INITIAL_INDEX_BYTES);
+  private final List<Mesh> meshes = new ArrayList<Mesh>();
+  private final int[] vertexArrayId = new int[1];
+  private final int[] vertexBufferId = new int[1];
+  private final int[] elementBufferId = new int[1];
+  private int version;   // changes whenever the buffers are replaced
+
+  private MeshArena(GL3 gl, VertexFormat format) {
+    this.format = format;
+    vertexBufferId[0] = createBuffer(gl, (long)vertexRanges.capacity*format.getStride());
+    elementBufferId[0] = createBuffer(gl, indexRanges.capacity);
+    gl.glGenVertexArrays(1, vertexArrayId, 0);
+    attachBuffers(gl);
+  }
+
+  /* The arena for format, created on first use */
+  public static MeshArena forFormat(GL3 gl, VertexFormat format) {
+    MeshArena arena = arenas.get(format);
+    if (arena == null) {
+      arena = new MeshArena(gl, format);
+      arenas.put(format, arena);
+    }
+    return arena;
+  }
+
+  /**
+   * Copies a mesh into the arena.
+   *
+   * @param vertices x,y,z, nx,ny,nz, s,t for each vertex.
+   * @param indices  Triangle indices, from 0 for the first of these vertices.
+   * @return  The mesh, which gives its space back to the arena when disposed.
+   */
+  public Mesh add(GL3 gl, float[] vertices, int[] indices) {
+    int vertexCount = vertices.length/VertexFormat.INPUT_FLOATS;
+    int indexType = VertexFormat.indexType(vertexCount);
+    return add(gl, vertexCount, format.pack(vertices), indices.length, indexType,
+               VertexFormat.packIndices(indices, indexType));
+  }
+
+  /**
+   * Copies a mesh that is already packed in the arena's format into the arena, e.g. from a MeshFile.
+   *
+   * @param vb The vertices, from position to limit, getStride() bytes each, in native byte order.
+   * @param ib The indices of type indexType, from position to limit, in native byte order.
+   */
+  public Mesh add(GL3 gl, int vertexCount, ByteBuffer vb, int indexCount, int indexType, ByteBuffer ib) {
+    int baseVertex = allocateVertices(gl, vertexCount);
+    int indexOffset = allocateIndexBytes(gl, ib.remaining());
+    int stride = format.getStride();
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, vertexBufferId[0]);
+    gl.glBufferSubData(GL3.GL_COPY_WRITE_BUFFER, (long)baseVertex*stride, vb.remaining(), vb);
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, elementBufferId[0]);
+    gl.glBufferSubData(GL3.GL_COPY_WRITE_BUFFER, indexOffset, ib.remaining(), ib);
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, 0);
+    Mesh mesh = new Mesh(this, vertexCount, indexCount, indexType, baseVertex, indexOffset);
+    meshes.add(mesh);
+    return mesh;
+  }
+
+  /* Gives the mesh's space back, compacting if enough is free. The last mesh out deletes the arena. */
+  void remove(GL3 gl, Mesh mesh) {
+    if (!meshes.remove(mesh)) return;
+    vertexRanges.release(mesh.getBaseVertex(), mesh.getVertexCount());
+    indexRanges.release((int)mesh.getIndexOffset(), indexSpan(mesh));
+    if (meshes.isEmpty()) {
+      dispose(gl);
+    }
+    else if (vertexRanges.holes() > vertexRanges.used() || indexRanges.holes() > indexRanges.used()) {
+      compact(gl);
+    }
+  }
+
+  /**
+   * Moves every mesh to the start of the buffers, in the order they were added, so all the free
+   * space is in one piece at the end. Meshes keep working; only their offsets change.
+   */
+  public void compact(GL3 gl) {
+    int stride = format.getStride();
+    int newVertices = createBuffer(gl, (long)vertexRanges.capacity*stride);
+    int newElements = createBuffer(gl, indexRanges.capacity);
+    int vertexEnd = 0, indexEnd = 0;
+    for (Mesh m : meshes) {
+      int span = indexSpan(m);
+      copy(gl, vertexBufferId[0], (long)m.getBaseVertex()*stride, newVertices, (long)vertexEnd*stride,
+           (long)m.getVertexCount()*stride);
+      copy(gl, elementBufferId[0], m.getIndexOffset(), newElements, indexEnd, span);
+      m.place(vertexEnd, indexEnd);
+      vertexEnd += m.getVertexCount();
+      indexEnd += span;
+    }
+    replaceBuffers(gl, newVertices, newElements);
+    vertexRanges.reset(vertexEnd);
+    indexRanges.reset(indexEnd);
+  }
+
+  public VertexFormat getFormat() {
+    return format;
+  }
+
+  public int getMeshCount() {
+    return meshes.size();
+  }
+
+  /* Vertices the vertex buffer can hold before it has to grow */
+  public int getVertexCapacity() {
+    return vertexRanges.capacity;
+  }
+
+  public int getVerticesUsed() {
+    return vertexRanges.used();
+  }
+
+  int getVertexArray() {
+    return vertexArrayId[0];
+  }
+
+  /* Changes whenever the buffers are replaced, so VAOs built with attach know to attach again */
+  int getVersion() {
+    return version;
+  }
+
+  /* Points attributes 0-2 of the bound VAO at the arena's vertex buffer, and attaches its index buffer */
+  void attach(GL3 gl) {
+    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBufferId[0]);
+    format.setAttributes(gl, 0);
+    gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, elementBufferId[0]);
+  }
+
+  private int allocateVertices(GL3 gl, int count) {
+    int at = vertexRanges.allocate(count);
+    if (at < 0) {
+      int capacity = Math.max(vertexRanges.capacity*2, vertexRanges.capacity + count);
+      int stride = format.getStride();
+      int newVertices = createBuffer(gl, (long)capacity*stride);
+      copy(gl, vertexBufferId[0], 0, newVertices, 0, (long)vertexRanges.capacity*stride);
+      replaceBuffers(gl, newVertices, elementBufferId[0]);
+      vertexRanges.grow(capacity);
+      at = vertexRanges.allocate(count);
+    }
+    return at;
+  }
+
+  private int allocateIndexBytes(GL3 gl, int bytes) {
+    bytes = align(bytes);
+    int at = indexRanges.allocate(bytes);
+    if (at < 0) {
+      int capacity = Math.max(indexRanges.capacity*2, indexRanges.capacity + bytes);
+      int newElements = createBuffer(gl, capacity);
+      copy(gl, elementBufferId[0], 0, newElements, 0, indexRanges.capacity);
+      replaceBuffers(gl, vertexBufferId[0], newElements);
+      indexRanges.grow(capacity);
+      at = indexRanges.allocate(bytes);
+    }
+    return at;
+  }
+
+  private static int indexSpan(Mesh m) {
+    return align(m.getIndexCount()*VertexFormat.indexBytes(m.getIndexType()));
+  }
+
+  private static int align(int bytes) {
+    return (bytes + INDEX_ALIGNMENT - 1)/INDEX_ALIGNMENT*INDEX_ALIGNMENT;
+  }
+
+  /* Switches to new buffers, deleting whichever old ones were replaced */
+  private void replaceBuffers(GL3 gl, int newVertices, int newElements) {
+    if (newVertices != vertexBufferId[0]) {
+      gl.glDeleteBuffers(1, vertexBufferId, 0);
+      vertexBufferId[0] = newVertices;
+    }
+    if (newElements != elementBufferId[0]) {
+      gl.glDeleteBuffers(1, elementBufferId, 0);
+      elementBufferId[0] = newElements;
+    }
+    attachBuffers(gl);
+    version++;
+  }
+
+  private void attachBuffers(GL3 gl) {
+    Mesh.bindVertexArray(gl, vertexArrayId[0]);
+    attach(gl);
+  }
+
+  /* Uses the copy targets, which no VAO records, so creating and copying buffers leaves the bound VAO alone */
+  private static int createBuffer(GL3 gl, long bytes) {
+    int[] id = new int[1];
+    gl.glGenBuffers(1, id, 0);
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, id[0]);
+    gl.glBufferData(GL3.GL_COPY_WRITE_BUFFER, bytes, null, GL.GL_STATIC_DRAW);
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, 0);
+    return id[0];
+  }
+
+  private static void copy(GL3 gl, int from, long fromOffset, int to, long toOffset, long bytes) {
+    if (bytes == 0) return;
+    gl.glBindBuffer(GL3.GL_COPY_READ_BUFFER, from);
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, to);
+    gl.glCopyBufferSubData(GL3.GL_COPY_READ_BUFFER, GL3.GL_COPY_WRITE_BUFFER, fromOffset, toOffset, bytes);
+    gl.glBindBuffer(GL3.GL_COPY_READ_BUFFER, 0);
+    gl.glBindBuffer(GL3.GL_COPY_WRITE_BUFFER, 0);
+  }
+
+  private void dispose(GL3 gl) {
+    Mesh.deleteVertexArray(gl, vertexArrayId);
+    gl.glDeleteBuffers(1, vertexBufferId, 0);
+    gl.glDeleteBuffers(1, elementBufferId, 0);
+    arenas.remove(format);
+  }
+
+  /* A first-fit free list over [0, capacity); neighbouring free ranges are merged when released */
+  private static class Ranges {
+    final TreeMap<Integer,Integer> free = new TreeMap<Integer,Integer>();   // start -> length
+    int capacity;
+
+    Ranges(int capacity) {
+      this.capacity = capacity;
+      free.put(0, capacity);
+    }
+
+    /* The start of a free range of the given length, now taken, or -1 if there is none */
+    int allocate(int length) {
+      for (Map.Entry<Integer,Integer> e : free.entrySet()) {
+        int start = e.getKey(), available = e.getValue();
+        if (available >= length) {
+          free.remove(start);
+          if (available > length) free.put(start + length, available - length);
+          return start;
+        }
+      }
+      return -1;
+    }
+
+    void release(int start, int length) {
+      if (length == 0) return;
+      Integer after = free.get(start + length);
+      if (after != null) {
+        free.remove(start + length);
+        length += after;
+      }
+      Map.Entry<Integer,Integer> before = free.lowerEntry(start);
+      if (before != null && before.getKey() + before.getValue() == start) {
+        start = before.getKey();
+        length += before.getValue();
+      }
+      free.put(start, length);
+    }
+
+    void grow(int newCapacity) {
+      int old = capacity;
+      capacity = newCapacity;
+      release(old, newCapacity - old);
+    }
+
+    /* Everything below used is taken, everything above it free */
+    void reset(int used) {
+      free.clear();
+      if (used < capacity) free.put(used, capacity - used);
+    }
+
+    int used() {
+      int unused = 0;
+      for (int length : free.values()) {
+        unused += length;
+      }
+      return capacity - unused;
+    }
+
+    /* Free space that is not part of the free tail at the end */
+    int holes() {
+      int holes = 0;
+      for (Map.Entry<Integer,Integer> e : free.entrySet()) {
+        if (e.getKey() + e.getValue() != capacity) holes += e.getValue();
+      }
+      return holes;
+    }
+  }
+
+}
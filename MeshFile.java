@@ -0,0 +1,177 @@
+import gmaths.*;
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+import com.jogamp.opengl.*;
+
+/**
+ * Reads and writes .mesh files, which hold a mesh already packed the way the GPU stores it, so
+ * loading one is a memory map and a copy into the MeshArena, with no parsing and no float[].
+ * A file can also hold levels of detail made by MeshSimplifier, so LodModel need not build them
+ * at run time. ObjImporter makes them from OBJ files. The layout, all little-endian:
+ *   header, 44 bytes   magic "MESH", version, VertexFormat id, vertex count, index type
+ *                      (GL_UNSIGNED_BYTE, _SHORT or _INT), level count, vertex block offset,
+ *                      and the centre x,y,z and radius of a sphere bounding the positions
+ *   level table        per level, the full mesh first: index count, index block offset, error
+ *   vertex block       vertex count * stride bytes, as VertexFormat.pack writes them
+ *   index blocks       per level, index count indices of the index type, starting on a 4-byte boundary
+ */
+
+public class MeshFile {
+
+  private static final int MAGIC = 0x4853454d;   // "MESH" read little-endian
+  private static final int VERSION = 2;
+  private static final int HEADER_BYTES = 44;
+  private static final int LEVEL_BYTES = 12;
+
+  private MeshFile() {
+  }
+
+  /* The levels of detail in a file, see loadLevels */
+  public static class Levels {
+    public final Mesh[] meshes;          // the full mesh first
+    public final float[] errors;         // per level, as for MeshSimplifier.Level
+    public final BoundingSphere bounds;  // of the positions
+
+    Levels(Mesh[] meshes, float[] errors, BoundingSphere bounds) {
+      this.meshes = meshes;
+      this.errors = errors;
+      this.bounds = bounds;
+    }
+  }
+
+  /**
+   * Writes a mesh.
+   *
+   * @param vertices x,y,z, nx,ny,nz, s,t for each vertex.
+   * @param indices  Triangle indices. They are stored as the smallest type that can address every vertex.
+   * @param format   How the vertices are packed; the loaded mesh uses the same format.
+   */
+  public static void write(Path file, float[] vertices, int[] indices, VertexFormat format) throws IOException {
+    write(file, vertices, new MeshSimplifier.Level[] {new MeshSimplifier.Level(indices, 0)}, format);
+  }
+
+  /**
+   * Writes a mesh with levels of detail, as MeshSimplifier.buildLevels makes them.
+   *
+   * @param levels The levels, the full mesh first. They all index the same vertices.
+   */
+  public static void write(Path file, float[] vertices, MeshSimplifier.Level[] levels, VertexFormat format)
+      throws IOException {
+    int vertexCount = vertices.length/VertexFormat.INPUT_FLOATS;
+    int indexType = VertexFormat.indexType(vertexCount);
+    int vertexOffset = HEADER_BYTES + levels.length*LEVEL_BYTES;
+    int[] indexOffsets = new int[levels.length];
+    int end = vertexOffset + vertexCount*format.getStride();
+    for (int i=0; i<levels.length; i++) {
+      indexOffsets[i] = align(end);
+      end = indexOffsets[i] + levels[i].indices.length*VertexFormat.indexBytes(indexType);
+    }
+    BoundingSphere bounds = BoundingSphere.fromAABB(AABB.fromPoints(vertices, VertexFormat.INPUT_FLOATS, vertexCount));
+    ByteBuffer bb = ByteBuffer.allocate(end).order(ByteOrder.LITTLE_ENDIAN);
+    bb.putInt(MAGIC).putInt(VERSION).putInt(format.getId()).putInt(vertexCount).putInt(indexType)
+      .putInt(levels.length).putInt(vertexOffset)
+      .putFloat(bounds.centre.x).putFloat(bounds.centre.y).putFloat(bounds.centre.z).putFloat(bounds.radius);
+    for (int i=0; i<levels.length; i++) {
+      bb.putInt(levels[i].indices.length).putInt(indexOffsets[i]).putFloat(levels[i].error);
+    }
+    format.pack(vertices, bb);
+    for (int i=0; i<levels.length; i++) {
+      bb.position(indexOffsets[i]);
+      VertexFormat.packIndices(levels[i].indices, indexType, bb);
+    }
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.write(tmp, bb.array());
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Loads a mesh into the MeshArena for its format. The file is memory mapped and the mapped
+   * blocks are handed straight to the GL, so the data never passes through the Java heap.
+   * Only the full mesh is loaded; any coarser levels are left in the file.
+   *
+   * @return  The mesh, which gives its space back to the arena when disposed.
+   * @throws IOException if the file cannot be read or is not a valid .mesh file.
+   */
+  public static Mesh load(GL3 gl, Path file) throws IOException {
+    return read(gl, file, 1).meshes[0];
+  }
+
+  /**
+   * As load, but loads every level of detail in the file, each as a mesh of its own.
+   *
+   * @return  The meshes, with their errors and the bounds LodModel needs.
+   * @throws IOException if the file cannot be read or is not a valid .mesh file.
+   */
+  public static Levels loadLevels(GL3 gl, Path file) throws IOException {
+    return read(gl, file, Integer.MAX_VALUE);
+  }
+
+  private static Levels read(GL3 gl, Path file, int maxLevels) throws IOException {
+    if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {   // the GL reads the blocks in native order
+      throw new IOException("Mesh files can only be loaded on little-endian platforms");
+    }
+    MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());   // stays valid after close
+    }
+    ByteBuffer header = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (header.limit() < HEADER_BYTES || header.getInt(0) != MAGIC) {
+      throw new IOException(file + " is not a mesh file");
+    }
+    if (header.getInt(4) != VERSION) {
+      throw new IOException(file + " is mesh file version " + header.getInt(4) + ", expected " + VERSION);
+    }
+    VertexFormat format = VertexFormat.byId(header.getInt(8));
+    int vertexCount = header.getInt(12);
+    int indexType = header.getInt(16);
+    int levelCount = header.getInt(20);
+    int vertexOffset = header.getInt(24);
+    if (format == null || vertexCount < 0 || levelCount < 1
+        || (indexType != GL.GL_UNSIGNED_BYTE && indexType != GL.GL_UNSIGNED_SHORT && indexType != GL.GL_UNSIGNED_INT)
+        || VertexFormat.indexBytes(indexType) < VertexFormat.indexBytes(VertexFormat.indexType(vertexCount))) {
+      throw new IOException(file + " has a bad header");
+    }
+    long vertexEnd = vertexOffset + (long)vertexCount*format.getStride();
+    if (vertexOffset < HEADER_BYTES + (long)levelCount*LEVEL_BYTES || vertexEnd > header.limit()) {
+      throw new IOException(file + " is truncated or has bad offsets");
+    }
+    BoundingSphere bounds = new BoundingSphere(new Vec3(header.getFloat(28), header.getFloat(32), header.getFloat(36)),
+                                               header.getFloat(40));
+    ByteBuffer vb = slice(mapped, vertexOffset, vertexEnd);
+    int count = Math.min(levelCount, maxLevels);
+    Mesh[] meshes = new Mesh[count];
+    float[] errors = new float[count];
+    MeshArena arena = MeshArena.forFormat(gl, format);
+    for (int i=0; i<count; i++) {
+      int entry = HEADER_BYTES + i*LEVEL_BYTES;
+      int indexCount = header.getInt(entry);
+      int indexOffset = header.getInt(entry + 4);
+      errors[i] = header.getFloat(entry + 8);
+      long indexEnd = indexOffset + (long)indexCount*VertexFormat.indexBytes(indexType);
+      if (indexCount < 0 || indexCount%3 != 0 || !(errors[i] >= 0)
+          || indexOffset < vertexEnd || indexOffset%4 != 0 || indexEnd > header.limit()) {
+        for (int j=0; j<i; j++) {
+          meshes[j].dispose(gl);
+        }
+        throw new IOException(file + " has a bad level " + i);
+      }
+      ByteBuffer ib = slice(mapped, indexOffset, indexEnd);
+      meshes[i] = arena.add(gl, vertexCount, vb, indexCount, indexType, ib);
+    }
+    return new Levels(meshes, errors, bounds);
+  }
+
+  private static ByteBuffer slice(ByteBuffer bb, long from, long to) {
+    ByteBuffer s = bb.duplicate();
+    s.limit((int)to).position((int)from);
+    return s.slice().order(ByteOrder.nativeOrder());
+  }
+
+  private static int align(int bytes) {
+    return (bytes + 3)/4*4;
+  }
+
+}
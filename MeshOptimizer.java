@@ -0,0 +1,379 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prepares mesh data for the GPU before it is uploaded:
+ * weld merges vertices whose every value is the same,
+ * optimizeVertexCache reorders triangles so the post-transform vertex cache is reused
+ * (Forsyth, "Linear-Speed Vertex Cache Optimisation"), and optimizeOverdraw then reorders
+ * clusters of those triangles so that outward-facing parts of the mesh are drawn first and
+ * hide what is behind them (after Sander et al., "Fast Triangle Reordering for Vertex Locality
+ * and Reduced Overdraw"), without giving up much of the cache order.
+ * Vertices are x,y,z, nx,ny,nz, s,t floats, as for Mesh.
+ */
+
+public class MeshOptimizer {
+
+  public static final int CACHE_SIZE = 32;          // the cache Forsyth's scores assume
+  public static final int REPORT_CACHE_SIZE = 16;   // a FIFO cache typical of real hardware, for acmr
+  public static final float OVERDRAW_THRESHOLD = 1.05f;   // how much worse ACMR may get to cut clusters smaller
+
+  private static final int F = VertexFormat.INPUT_FLOATS;
+  private static final int MIN_CLUSTER = 8;   // triangles; smaller clusters are not worth sorting
+
+  private MeshOptimizer() {
+  }
+
+  /* Vertices and indices after processing, with the ACMR (see acmr) before and after */
+  public static class Result {
+    public final float[] vertices;
+    public final int[] indices;
+    public final float acmrBefore, acmrAfter;
+
+    Result(float[] vertices, int[] indices, float acmrBefore, float acmrAfter) {
+      this.vertices = vertices;
+      this.indices = indices;
+      this.acmrBefore = acmrBefore;
+      this.acmrAfter = acmrAfter;
+    }
+
+    public String toString() {
+      return String.format("%d vertices, %d triangles, ACMR %.3f -> %.3f",
+                           vertices.length/F, indices.length/3, acmrBefore, acmrAfter);
+    }
+  }
+
+  /**
+   * Runs weld, optimizeVertexCache and optimizeOverdraw. The arrays passed in are not changed.
+   *
+   * @return  The processed mesh, with an ACMR report.
+   */
+  public static Result optimize(float[] vertices, int[] indices) {
+    checkTriangles(indices);
+    float before = acmr(indices, vertices.length/F, REPORT_CACHE_SIZE);
+    Result welded = weld(vertices, indices);
+    int vertexCount = welded.vertices.length/F;
+    int[] cached = optimizeVertexCache(welded.indices, vertexCount);
+    int[] ordered = optimizeOverdraw(welded.vertices, cached, OVERDRAW_THRESHOLD);
+    return new Result(welded.vertices, ordered, before, acmr(ordered, vertexCount, REPORT_CACHE_SIZE));
+  }
+
+  /**
+   * Merges vertices whose eight values are all bit for bit the same, keeping the first of each.
+   *
+   * @return  The unique vertices, in order of first use, and the indices remapped to them.
+   */
+  public static Result weld(float[] vertices, int[] indices) {
+    Map<VertexKey,Integer> unique = new HashMap<VertexKey,Integer>();
+    int[] remap = new int[vertices.length/F];
+    Arrays.fill(remap, -1);
+    float[] out = new float[vertices.length];
+    int count = 0;
+    int[] newIndices = new int[indices.length];
+    for (int i=0; i<indices.length; i++) {
+      int v = indices[i];
+      if (remap[v] < 0) {
+        VertexKey key = new VertexKey(Arrays.copyOfRange(vertices, v*F, v*F + F));
+        Integer id = unique.get(key);
+        if (id == null) {
+          id = count++;
+          unique.put(key, id);
+          System.arraycopy(key.values, 0, out, id*F, F);
+        }
+        remap[v] = id;
+      }
+      newIndices[i] = remap[v];
+    }
+    float acmr = acmr(newIndices, count, REPORT_CACHE_SIZE);
+    return new Result(Arrays.copyOf(out, count*F), newIndices, acmr, acmr);
+  }
+
+  /**
+   * Reorders triangles for the post-transform vertex cache. Each step draws the triangle whose
+   * vertices score best, where a vertex scores for being recently used and for having few
+   * triangles left, so that vertices are finished off while they are still in the cache.
+   *
+   * @param indices     Triangle indices.
+   * @param vertexCount The number of vertices the indices refer to.
+   * @return  The same triangles, reordered; each keeps its winding.
+   */
+  public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+    checkTriangles(indices);
+    int triCount = indices.length/3;
+    // the triangles that use each vertex; the first valence[v] entries are the ones not yet drawn
+    int[] valence = new int[vertexCount];
+    for (int i : indices) {
+      valence[i]++;
+    }
+    int[] adjacencyStart = new int[vertexCount + 1];
+    for (int v=0; v<vertexCount; v++) {
+      adjacencyStart[v+1] = adjacencyStart[v] + valence[v];
+    }
+    int[] adjacency = new int[indices.length];
+    int[] filled = new int[vertexCount];
+    for (int t=0; t<triCount; t++) {
+      for (int k=0; k<3; k++) {
+        int v = indices[t*3 + k];
+        adjacency[adjacencyStart[v] + filled[v]++] = t;
+      }
+    }
+
+    int[] cachePosition = new int[vertexCount];
+    Arrays.fill(cachePosition, -1);
+    float[] vertexScore = new float[vertexCount];
+    for (int v=0; v<vertexCount; v++) {
+      vertexScore[v] = vertexScore(-1, valence[v]);
+    }
+    float[] triScore = new float[triCount];
+    boolean[] drawn = new boolean[triCount];
+    for (int t=0; t<triCount; t++) {
+      triScore[t] = vertexScore[indices[t*3]] + vertexScore[indices[t*3 + 1]] + vertexScore[indices[t*3 + 2]];
+    }
+
+    int[] cache = new int[CACHE_SIZE + 3];
+    int[] newCache = new int[CACHE_SIZE + 3];
+    int cacheCount = 0;
+    int[] result = new int[indices.length];
+    int best = 0;
+    for (int t=1; t<triCount; t++) {
+      if (triScore[t] > triScore[best]) best = t;
+    }
+    int scan = 0;   // triangles before this one have all been drawn
+    for (int out=0; out<triCount; out++) {
+      if (best < 0) {   // nothing in the cache has triangles left, so start again at the next one not drawn
+        while (drawn[scan]) scan++;
+        best = scan;
+      }
+      int t = best;
+      drawn[t] = true;
+      int a = indices[t*3], b = indices[t*3 + 1], c = indices[t*3 + 2];
+      result[out*3] = a;
+      result[out*3 + 1] = b;
+      result[out*3 + 2] = c;
+
+      // the triangle's vertices go to the front of the cache, the rest move back
+      int newCount = 0;
+      for (int k=0; k<3; k++) {
+        int v = indices[t*3 + k];
+        newCache[newCount++] = v;
+        removeTriangle(adjacency, adjacencyStart[v], valence, v, t);
+      }
+      for (int i=0; i<cacheCount; i++) {
+        int v = cache[i];
+        if (v != a && v != b && v != c) newCache[newCount++] = v;
+      }
+      int[] swap = cache;
+      cache = newCache;
+      newCache = swap;
+      cacheCount = newCount;
+
+      // rescore the vertices that moved, including those pushed out, and their triangles
+      for (int i=0; i<cacheCount; i++) {
+        int v = cache[i];
+        cachePosition[v] = i < CACHE_SIZE ? i : -1;
+        float score = vertexScore(cachePosition[v], valence[v]);
+        float delta = score - vertexScore[v];
+        vertexScore[v] = score;
+        for (int j=adjacencyStart[v]; j<adjacencyStart[v] + valence[v]; j++) {
+          triScore[adjacency[j]] += delta;
+        }
+      }
+      if (cacheCount > CACHE_SIZE) cacheCount = CACHE_SIZE;
+
+      // the next triangle is the best one that uses a cached vertex
+      best = -1;
+      for (int i=0; i<cacheCount; i++) {
+        int v = cache[i];
+        for (int j=adjacencyStart[v]; j<adjacencyStart[v] + valence[v]; j++) {
+          int u = adjacency[j];
+          if (best < 0 || triScore[u] > triScore[best]) best = u;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reorders clusters of triangles, keeping the order inside each cluster, so that clusters
+   * facing away from the middle of the mesh are drawn first. Clusters end where the vertex
+   * cache would have to start afresh anyway, or where the cluster's own ACMR is within
+   * threshold of the whole mesh's, so cutting there costs little cache reuse.
+   *
+   * @param indices   Triangle indices, best already in vertex cache order.
+   * @param threshold How much ACMR may grow, e.g. 1.05 for 5%.
+   * @return  The same triangles, reordered.
+   */
+  public static int[] optimizeOverdraw(float[] vertices, int[] indices, float threshold) {
+    checkTriangles(indices);
+    int triCount = indices.length/3;
+    if (triCount == 0) return indices.clone();
+    int vertexCount = vertices.length/F;
+    float meshAcmr = acmr(indices, vertexCount, REPORT_CACHE_SIZE);
+
+    // cut the triangle sequence into clusters. The whole sequence runs through one simulated cache, 
+    // to find where it misses on all three vertices anyway; each cluster also runs through a cache 
+    // of its own that starts empty, since after sorting it may follow any other cluster.
+    List<int[]> clusters = new ArrayList<int[]>();   // {first triangle, end}
+    int[] stamp = new int[vertexCount], clusterStamp = new int[vertexCount];
+    int time = 1, clusterTime = 1, start = 0, clusterMisses = 0;
+    for (int t=0; t<triCount; t++) {
+      int triMisses = 0;
+      for (int k=0; k<3; k++) {
+        int v = indices[t*3 + k];
+        if (stamp[v] == 0 || time - stamp[v] > REPORT_CACHE_SIZE) {
+          stamp[v] = time++;
+          triMisses++;
+        }
+      }
+      boolean hardBoundary = triMisses == 3;
+      boolean softBoundary = t - start >= MIN_CLUSTER && (float)clusterMisses/(t - start) <= meshAcmr*threshold;
+      if (t > start && (hardBoundary || softBoundary)) {
+        clusters.add(new int[] {start, t});
+        start = t;
+        clusterMisses = 0;
+        clusterTime += REPORT_CACHE_SIZE + 1;   // empties the cluster's cache
+      }
+      for (int k=0; k<3; k++) {
+        int v = indices[t*3 + k];
+        if (clusterStamp[v] == 0 || clusterTime - clusterStamp[v] > REPORT_CACHE_SIZE) {
+          clusterStamp[v] = clusterTime++;
+          clusterMisses++;
+        }
+      }
+    }
+    clusters.add(new int[] {start, triCount});
+
+    // sort by how far each cluster's surface lies out from the middle along its own normal
+    float[] centre = new float[3];
+    float[] clusterCentre = new float[3], normal = new float[3];
+    float totalArea = centroid(vertices, indices, 0, triCount, centre, new float[3]);
+    final float[] key = new float[clusters.size()];
+    List<Integer> order = new ArrayList<Integer>();
+    for (int i=0; i<clusters.size(); i++) {
+      int[] cl = clusters.get(i);
+      centroid(vertices, indices, cl[0], cl[1], clusterCentre, normal);
+      float length = (float)Math.sqrt(normal[0]*normal[0] + normal[1]*normal[1] + normal[2]*normal[2]);
+      if (length > 0 && totalArea > 0) {
+        key[i] = ((clusterCentre[0] - centre[0])*normal[0] + (clusterCentre[1] - centre[1])*normal[1]
+                  + (clusterCentre[2] - centre[2])*normal[2])/length;
+      }
+      order.add(i);
+    }
+    Collections.sort(order, (x, y) -> Float.compare(key[y], key[x]));   // stable, so ties keep their order
+
+    int[] result = new int[indices.length];
+    int out = 0;
+    for (int i : order) {
+      int[] cl = clusters.get(i);
+      System.arraycopy(indices, cl[0]*3, result, out, (cl[1] - cl[0])*3);
+      out += (cl[1] - cl[0])*3;
+    }
+    return result;
+  }
+
+  /**
+   * The average cache miss ratio: vertices transformed per triangle, simulating a FIFO cache.
+   * 3 means no reuse at all; well ordered meshes get close to 0.5-0.7.
+   *
+   * @return  The ACMR, or 0 for no triangles.
+   */
+  public static float acmr(int[] indices, int vertexCount, int cacheSize) {
+    if (indices.length < 3) return 0;
+    int[] stamp = new int[vertexCount];
+    int time = 1, misses = 0;
+    for (int v : indices) {
+      if (stamp[v] == 0 || time - stamp[v] > cacheSize) {
+        stamp[v] = time++;
+        misses++;
+      }
+    }
+    return (float)misses/(indices.length/3);
+  }
+
+  private static final float DECAY_POWER = 1.5f;
+  private static final float LAST_TRIANGLE_SCORE = 0.75f;
+  private static final float VALENCE_BOOST_SCALE = 2.0f;
+  private static final float VALENCE_BOOST_POWER = 0.5f;
+
+  private static float vertexScore(int cachePosition, int remaining) {
+    if (remaining == 0) return -1;   // no triangles left to draw with it
+    float score = 0;
+    if (cachePosition >= 0) {
+      if (cachePosition < 3) {   // used by the last triangle, so a triangle sharing the edge is cheap anyway
+        score = LAST_TRIANGLE_SCORE;
+      }
+      else {
+        score = (float)Math.pow(1 - (float)(cachePosition - 3)/(CACHE_SIZE - 3), DECAY_POWER);
+      }
+    }
+    return score + VALENCE_BOOST_SCALE*(float)Math.pow(remaining, -VALENCE_BOOST_POWER);
+  }
+
+  private static void removeTriangle(int[] adjacency, int start, int[] valence, int v, int t) {
+    int last = start + valence[v] - 1;
+    for (int j=start; j<=last; j++) {
+      if (adjacency[j] == t) {
+        adjacency[j] = adjacency[last];
+        adjacency[last] = t;
+        valence[v]--;
+        return;
+      }
+    }
+  }
+
+  /* The area-weighted centre of triangles [from, to) into centre, and the sum of their area vectors into normal */
+  private static float centroid(float[] vertices, int[] indices, int from, int to, float[] centre, float[] normal) {
+    Arrays.fill(centre, 0);
+    Arrays.fill(normal, 0);
+    float total = 0;
+    for (int t=from; t<to; t++) {
+      int a = indices[t*3]*F, b = indices[t*3 + 1]*F, c = indices[t*3 + 2]*F;
+      float ux = vertices[b] - vertices[a], uy = vertices[b+1] - vertices[a+1], uz = vertices[b+2] - vertices[a+2];
+      float vx = vertices[c] - vertices[a], vy = vertices[c+1] - vertices[a+1], vz = vertices[c+2] - vertices[a+2];
+      float nx = uy*vz - uz*vy, ny = uz*vx - ux*vz, nz = ux*vy - uy*vx;
+      float area = (float)Math.sqrt(nx*nx + ny*ny + nz*nz)*0.5f;
+      for (int k=0; k<3; k++) {
+        centre[k] += area*(vertices[a+k] + vertices[b+k] + vertices[c+k])/3;
+      }
+      normal[0] += nx;
+      normal[1] += ny;
+      normal[2] += nz;
+      total += area;
+    }
+    if (total > 0) {
+      for (int k=0; k<3; k++) {
+        centre[k] /= total;
+      }
+    }
+    return total;
+  }
+
+  private static void checkTriangles(int[] indices) {
+    if (indices.length % 3 != 0) {
+      throw new IllegalArgumentException("index count " + indices.length + " is not a multiple of 3");
+    }
+  }
+
+  private static class VertexKey {
+    final float[] values;
+    final int hash;
+
+    VertexKey(float[] values) {
+      this.values = values;
+      this.hash = Arrays.hashCode(values);
+    }
+
+    public boolean equals(Object o) {
+      return (o instanceof VertexKey) && Arrays.equals(values, ((VertexKey)o).values);
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+}
@@ -0,0 +1,610 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes coarser versions of a mesh for LodModel by edge collapse with quadric error metrics
+ * (Garland and Heckbert, "Surface Simplification Using Quadric Error Metrics"). Each vertex
+ * keeps a quadric, the sum of the squared distances to the planes of the triangles around it, and
+ * the edge whose collapse adds the least error goes first. Collapses move one end of an edge onto
+ * the other, so no new vertices are made and every level can be drawn from the original vertices.
+ *
+ * Vertices that share a position with another vertex, i.e. those on hard edges and texture
+ * seams, are never moved, so seams stay closed. The data should be welded first (see
+ * MeshOptimizer.weld), or exact duplicates count as seams too and are never moved either.
+ * Open borders only collapse along themselves, and collapses that would flip a triangle are skipped.
+ * Vertices are x,y,z, nx,ny,nz, s,t floats, as for Mesh.
+ *
+ * Run as: java MeshSimplifier   to print the levels made for a generated grid and sphere
+ */
+
+public class MeshSimplifier {
+
+  public static final int MAX_LEVELS = 4;       // besides the full mesh
+  public static final int MIN_TRIANGLES = 16;   // no level is made smaller than this
+
+  private static final int F = VertexFormat.INPUT_FLOATS;
+  private static final double BORDER_WEIGHT = 10;    // how strongly open borders keep their shape
+  private static final float MIN_REDUCTION = 0.9f;   // a level must have at most this fraction of the last's triangles
+
+  private MeshSimplifier() {
+  }
+
+  public static void main(String[] args) {
+    int n = 64;   // a 64x64 grid with a gentle bump, whose borders must hold
+    float[] grid = new float[(n+1)*(n+1)*F];
+    int[] gridIndices = new int[n*n*6];
+    for (int y=0; y<=n; y++) {
+      for (int x=0; x<=n; x++) {
+        putVertex(grid, y*(n+1) + x, (float)x/n, (float)y/n,
+                  0.05f*(float)(Math.sin(x*0.3)*Math.cos(y*0.2)), 0, 0, 1, (float)x/n, (float)y/n);
+      }
+    }
+    for (int y=0, i=0; y<n; y++) {
+      for (int x=0; x<n; x++) {
+        int v = y*(n+1) + x;
+        int[] quad = {v, v+1, v+n+2, v, v+n+2, v+n+1};
+        System.arraycopy(quad, 0, gridIndices, i, 6);
+        i += 6;
+      }
+    }
+    report("grid", grid, gridIndices);
+
+    int stacks = 32, slices = 64;   // a closed unit sphere, one vertex per position
+    float[] sphere = new float[(2 + (stacks-1)*slices)*F];
+    int[] sphereIndices = new int[slices*(stacks-1)*6];
+    putVertex(sphere, 0, 0, 1, 0, 0, 1, 0, 0, 0);
+    putVertex(sphere, 1, 0, -1, 0, 0, -1, 0, 0, 0);
+    for (int i=1; i<stacks; i++) {
+      for (int j=0; j<slices; j++) {
+        double theta = Math.PI*i/stacks, phi = 2*Math.PI*j/slices;
+        float x = (float)(Math.sin(theta)*Math.cos(phi)), y = (float)Math.cos(theta), z = (float)(Math.sin(theta)*Math.sin(phi));
+        putVertex(sphere, 2 + (i-1)*slices + j, x, y, z, x, y, z, 0, 0);
+      }
+    }
+    int k = 0;
+    int last = 2 + (stacks-2)*slices;
+    for (int j=0; j<slices; j++) {
+      int next = (j+1)%slices;
+      int[] caps = {0, 2+next, 2+j, 1, last+j, last+next};
+      System.arraycopy(caps, 0, sphereIndices, k, 6);
+      k += 6;
+      for (int i=0; i<stacks-2; i++) {
+        int a = 2 + i*slices + j, b = 2 + i*slices + next;
+        int[] quad = {a, b, b+slices, a, b+slices, a+slices};
+        System.arraycopy(quad, 0, sphereIndices, k, 6);
+        k += 6;
+      }
+    }
+    report("sphere", sphere, sphereIndices);
+  }
+
+  private static void putVertex(float[] vertices, int i, float x, float y, float z,
+                                float nx, float ny, float nz, float s, float t) {
+    float[] v = {x, y, z, nx, ny, nz, s, t};
+    System.arraycopy(v, 0, vertices, i*F, F);
+  }
+
+  private static void report(String name, float[] vertices, int[] indices) {
+    long start = System.nanoTime();
+    Level[] levels = buildLevels(vertices, indices);
+    System.out.printf("%s: %d levels in %.0f ms%n", name, levels.length, (System.nanoTime() - start)/1e6);
+    for (int i=0; i<levels.length; i++) {
+      System.out.println("  " + i + ": " + levels[i]);
+    }
+  }
+
+  /* One level of detail: indices into the original vertices, and the error the simplification made */
+  public static class Level {
+    public final int[] indices;
+    public final float error;   // in the mesh's units, a bound on how far the surface moved
+
+    Level(int[] indices, float error) {
+      this.indices = indices;
+      this.error = error;
+    }
+
+    public String toString() {
+      return String.format("%d triangles, error %.4f", indices.length/3, error);
+    }
+  }
+
+  /**
+   * Builds levels of detail, each with about half the triangles of the one before, stopping
+   * after MAX_LEVELS or when a level can no longer be made much smaller. The levels come from
+   * one run of collapses, each taken when the triangle count reaches its target, so the whole
+   * set costs about as much as the first level alone.
+   *
+   * @return  The levels, starting with the full mesh at error 0.
+   */
+  public static Level[] buildLevels(float[] vertices, int[] indices) {
+    Level[] levels = new Level[MAX_LEVELS + 1];
+    levels[0] = new Level(indices, 0);
+    int count = 1;
+    Collapser collapser = new Collapser(vertices, indices);
+    while (count <= MAX_LEVELS) {
+      Level last = levels[count-1];
+      int triangles = last.indices.length/3;
+      if (triangles/2 < MIN_TRIANGLES) break;
+      Level next = collapser.run(triangles/2, Float.MAX_VALUE);   // carries on from the last level
+      if (next.indices.length > last.indices.length*MIN_REDUCTION) break;
+      levels[count++] = next;
+    }
+    return Arrays.copyOf(levels, count);
+  }
+
+  /**
+   * Collapses edges, cheapest first, until at most targetTriangles are left or the next collapse
+   * would make an error larger than maxError.
+   *
+   * @param vertices x,y,z, nx,ny,nz, s,t for each vertex; they are not changed.
+   * @param indices  Triangle indices.
+   * @return  The remaining triangles, with the largest error made. There may be more than
+   *          targetTriangles if the mesh cannot be simplified that far.
+   */
+  public static Level simplify(float[] vertices, int[] indices, int targetTriangles, float maxError) {
+    return new Collapser(vertices, indices).run(targetTriangles, maxError);
+  }
+
+  /* The state of a run of collapses, which run may carry on with a smaller target */
+  private static class Collapser {
+    final float[] vertices;
+    final int[] tri;
+    final int vertexCount, triangleCount;
+    final boolean[] deleted;       // per triangle
+    final int[] position;          // the first vertex with the same position, which holds the quadric
+    final boolean[] seam;          // shares its position with a different vertex
+    final double[] quadrics;       // 10 per position
+    final IntList[] around;        // per vertex, the triangles using it; may include deleted ones
+    final EdgeCounts edgeUses;     // live triangles on each edge between positions
+    final int[] borderEdges;       // per position, the edges at it with one live triangle
+    final int[] stamp;
+    final int[] offered;           // per vertex, the round it was last offered in
+    final CollapseQueue queue;
+    int time, round;
+    int live;
+    double worst;                  // the largest cost collapsed so far
+
+    Collapser(float[] vertices, int[] indices) {
+      if (indices.length % 3 != 0) {
+        throw new IllegalArgumentException("index count " + indices.length + " is not a multiple of 3");
+      }
+      this.vertices = vertices;
+      tri = indices.clone();
+      vertexCount = vertices.length/F;
+      triangleCount = indices.length/3;
+      live = triangleCount;
+      deleted = new boolean[triangleCount];
+      position = new int[vertexCount];
+      seam = new boolean[vertexCount];
+      quadrics = new double[vertexCount*10];
+      around = new IntList[vertexCount];
+      stamp = new int[vertexCount];
+      offered = new int[vertexCount];
+      queue = new CollapseQueue(vertexCount);
+      edgeUses = new EdgeCounts(indices.length);
+      borderEdges = new int[vertexCount];
+      findPositions();
+      for (int t=0; t<triangleCount; t++) {
+        for (int k=0; k<3; k++) {
+          int v = tri[t*3 + k];
+          if (around[v] == null) around[v] = new IntList();
+          around[v].add(t);
+        }
+      }
+      for (int t=0; t<triangleCount; t++) {
+        countEdges(t, 1);
+      }
+      addQuadrics();
+      for (int v=0; v<vertexCount; v++) {
+        offer(v, false);
+      }
+    }
+
+    /* Collapses until at most targetTriangles are left, and returns what is left then */
+    Level run(int targetTriangles, float maxError) {
+      double maxCost = (double)maxError*maxError;
+      while (live > targetTriangles && !queue.isEmpty()) {
+        int from = queue.peek(), to = queue.target[from];
+        double cost = queue.cost[from];
+        if (cost > maxCost) break;   // stays queued for a later run with a larger maxError
+        if (around[to].size == 0 || !canCollapse(from, to)) {
+          offer(from, true);   // the cheapest collapse that is allowed now instead
+          continue;
+        }
+        queue.remove(from);
+        collapse(from, to);
+        worst = Math.max(worst, cost);
+        round++;
+        offered[to] = round;
+        offer(to, false);
+        IntList list = around[to];
+        for (int i=0; i<list.size; i++) {
+          int t = list.data[i];
+          if (deleted[t]) continue;
+          for (int k=0; k<3; k++) {
+            int w = tri[t*3 + k];
+            if (offered[w] == round) continue;
+            offered[w] = round;
+            offer(w, false);
+          }
+        }
+      }
+      int[] out = new int[live*3];
+      int n = 0;
+      for (int t=0; t<triangleCount; t++) {
+        if (!deleted[t]) {
+          System.arraycopy(tri, t*3, out, n, 3);
+          n += 3;
+        }
+      }
+      return new Level(out, (float)Math.sqrt(worst));
+    }
+
+    /* Queues moving from onto its cheapest neighbour, if from may move at all, in place of any
+       collapse of from already queued. With checked, only collapses canCollapse allows count. */
+    void offer(int from, boolean checked) {
+      if (seam[from] || around[from] == null) return;
+      boolean border = isBorderVertex(from);
+      double best = Double.MAX_VALUE;
+      int bestTo = -1;
+      IntList list = around[from];
+      for (int i=0; i<list.size; i++) {
+        int t = list.data[i];
+        if (deleted[t]) continue;
+        for (int k=0; k<3; k++) {
+          int to = tri[t*3 + k];
+          if (to == from || position[from] == position[to]) continue;
+          if (border && !isBorder(from, to)) continue;   // borders only slide along themselves
+          int o = to*F;
+          double cost = evaluate(quadrics, position[from]*10, vertices[o], vertices[o+1], vertices[o+2])
+                      + evaluate(quadrics, position[to]*10, vertices[o], vertices[o+1], vertices[o+2]);
+          cost = Math.max(0, cost);   // quadrics add, so their sum is the sum of their values
+          if (cost < best && (!checked || canCollapse(from, to))) {
+            best = cost;
+            bestTo = to;
+          }
+        }
+      }
+      if (bestTo >= 0) queue.set(from, bestTo, best);
+      else queue.remove(from);
+    }
+
+    boolean canCollapse(int from, int to) {
+      if (isBorderVertex(from) && !isBorder(from, to)) return false;   // the border may have changed since queued
+
+      // the link condition: from and to may only share the neighbours of the triangles on the edge,
+      // otherwise the collapse pinches the surface
+      time++;
+      int shared = 0, edgeTriangles = 0;
+      IntList a = around[from];
+      for (int i=0; i<a.size; i++) {
+        int t = a.data[i];
+        if (deleted[t]) continue;
+        for (int k=0; k<3; k++) {
+          stamp[position[tri[t*3 + k]]] = time;
+        }
+      }
+      IntList b = around[to];
+      for (int i=0; i<b.size; i++) {
+        int t = b.data[i];
+        if (deleted[t]) continue;
+        boolean onEdge = false;
+        for (int k=0; k<3; k++) {
+          int p = position[tri[t*3 + k]];
+          if (p == position[from]) onEdge = true;
+          if (stamp[p] == time && p != position[from] && p != position[to]) {
+            stamp[p] = -time;   // count each shared neighbour once
+            shared++;
+          }
+        }
+        if (onEdge) edgeTriangles++;
+      }
+      if (shared > edgeTriangles) return false;
+
+      // no triangle that moves may flip over or collapse to nothing
+      float[] v = vertices;
+      int o = to*F;
+      for (int i=0; i<a.size; i++) {
+        int t = a.data[i];
+        if (deleted[t] || uses(t, to)) continue;
+        int[] c = {tri[t*3]*F, tri[t*3 + 1]*F, tri[t*3 + 2]*F};
+        double[] before = normal(v, c[0], c[1], c[2]);
+        for (int k=0; k<3; k++) {
+          if (tri[t*3 + k] == from) c[k] = o;
+        }
+        double[] after = normal(v, c[0], c[1], c[2]);
+        double dot = before[0]*after[0] + before[1]*after[1] + before[2]*after[2];
+        double lengths = Math.sqrt((before[0]*before[0] + before[1]*before[1] + before[2]*before[2])
+                                   *(after[0]*after[0] + after[1]*after[1] + after[2]*after[2]));
+        if (lengths == 0 || dot < 0.2*lengths) return false;
+      }
+      return true;
+    }
+
+    void collapse(int from, int to) {
+      IntList a = around[from];
+      for (int i=0; i<a.size; i++) {
+        int t = a.data[i];
+        if (deleted[t]) continue;
+        countEdges(t, -1);
+        if (uses(t, to)) {
+          deleted[t] = true;
+          live--;
+          continue;
+        }
+        for (int k=0; k<3; k++) {
+          if (tri[t*3 + k] == from) tri[t*3 + k] = to;
+        }
+        countEdges(t, 1);
+        around[to].add(t);
+      }
+      a.size = 0;
+      int pf = position[from]*10, pt = position[to]*10;
+      for (int i=0; i<10; i++) {
+        quadrics[pt + i] += quadrics[pf + i];
+      }
+    }
+
+    boolean uses(int t, int v) {
+      return tri[t*3] == v || tri[t*3 + 1] == v || tri[t*3 + 2] == v;
+    }
+
+    boolean isBorderVertex(int v) {
+      return borderEdges[position[v]] > 0;
+    }
+
+    boolean isBorder(int a, int b) {
+      return edgeUses.get(edge(a, b)) == 1;
+    }
+
+    /* Adds change to the uses of t's edges, keeping borderEdges up to date */
+    void countEdges(int t, int change) {
+      for (int k=0; k<3; k++) {
+        int a = tri[t*3 + k], b = tri[t*3 + (k+1)%3];
+        int before = edgeUses.add(edge(a, b), change), after = before + change;
+        if ((before == 1) != (after == 1)) {
+          int border = after == 1 ? 1 : -1;
+          borderEdges[position[a]] += border;
+          borderEdges[position[b]] += border;
+        }
+      }
+    }
+
+    /* The edge between the positions of a and b, either way round */
+    long edge(int a, int b) {
+      int pa = position[a], pb = position[b];
+      return pa < pb ? (long)pa << 32 | pb : (long)pb << 32 | pa;
+    }
+
+    void findPositions() {
+      Map<List<Float>,Integer> first = new HashMap<List<Float>,Integer>();
+      for (int v=0; v<vertexCount; v++) {
+        List<Float> key = Arrays.asList(vertices[v*F], vertices[v*F + 1], vertices[v*F + 2]);
+        Integer p = first.get(key);
+        if (p == null) {
+          first.put(key, v);
+          position[v] = v;
+        }
+        else {
+          position[v] = p;
+          seam[v] = true;
+          seam[p] = true;
+        }
+      }
+    }
+
+    /* Each triangle's plane goes to its corners, so a quadric's value is the sum of the squared
+       distances to those planes, and its square root bounds the distance to each of them. Each
+       border edge also adds a plane through it, at right angles to the triangle, so the border
+       holds its shape. */
+    void addQuadrics() {
+      for (int t=0; t<triangleCount; t++) {
+        int a = tri[t*3]*F, b = tri[t*3 + 1]*F, c = tri[t*3 + 2]*F;
+        double[] n = normal(vertices, a, b, c);
+        double length = Math.sqrt(n[0]*n[0] + n[1]*n[1] + n[2]*n[2]);
+        if (length == 0) continue;
+        double nx = n[0]/length, ny = n[1]/length, nz = n[2]/length;
+        for (int k=0; k<3; k++) {
+          int v = tri[t*3 + k];
+          addPlane(position[v], nx, ny, nz, vertices[v*F], vertices[v*F + 1], vertices[v*F + 2], 1);
+        }
+        for (int k=0; k<3; k++) {
+          int v = tri[t*3 + k], w = tri[t*3 + (k+1)%3];
+          if (!isBorder(v, w)) continue;
+          double ex = vertices[w*F] - vertices[v*F], ey = vertices[w*F + 1] - vertices[v*F + 1],
+                 ez = vertices[w*F + 2] - vertices[v*F + 2];
+          double px = ey*nz - ez*ny, py = ez*nx - ex*nz, pz = ex*ny - ey*nx;   // in the triangle's plane, across the edge
+          double pl = Math.sqrt(px*px + py*py + pz*pz);
+          if (pl == 0) continue;
+          addPlane(position[v], px/pl, py/pl, pz/pl, vertices[v*F], vertices[v*F + 1], vertices[v*F + 2], BORDER_WEIGHT);
+          addPlane(position[w], px/pl, py/pl, pz/pl, vertices[v*F], vertices[v*F + 1], vertices[v*F + 2], BORDER_WEIGHT);
+        }
+      }
+    }
+
+    /* Adds weight times the squared distance to the plane with unit normal n through (x,y,z) */
+    void addPlane(int p, double nx, double ny, double nz, double x, double y, double z, double weight) {
+      double d = -(nx*x + ny*y + nz*z);
+      int q = p*10;
+      quadrics[q]     += weight*nx*nx;
+      quadrics[q + 1] += weight*nx*ny;
+      quadrics[q + 2] += weight*nx*nz;
+      quadrics[q + 3] += weight*nx*d;
+      quadrics[q + 4] += weight*ny*ny;
+      quadrics[q + 5] += weight*ny*nz;
+      quadrics[q + 6] += weight*ny*d;
+      quadrics[q + 7] += weight*nz*nz;
+      quadrics[q + 8] += weight*nz*d;
+      quadrics[q + 9] += weight*d*d;
+    }
+  }
+
+  /* The value at (x,y,z) of the quadric starting at q[i] */
+  private static double evaluate(double[] q, int i, double x, double y, double z) {
+    return q[i]*x*x + 2*q[i+1]*x*y + 2*q[i+2]*x*z + 2*q[i+3]*x
+         + q[i+4]*y*y + 2*q[i+5]*y*z + 2*q[i+6]*y
+         + q[i+7]*z*z + 2*q[i+8]*z
+         + q[i+9];
+  }
+
+  /* The unnormalized normal of the triangle whose corners start at offsets a, b and c */
+  private static double[] normal(float[] v, int a, int b, int c) {
+    double ux = v[b] - v[a], uy = v[b+1] - v[a+1], uz = v[b+2] - v[a+2];
+    double wx = v[c] - v[a], wy = v[c+1] - v[a+1], wz = v[c+2] - v[a+2];
+    return new double[] {uy*wz - uz*wy, uz*wx - ux*wz, ux*wy - uy*wx};
+  }
+
+  /* The queued collapse of each vertex, cheapest first, in a binary heap that knows where each
+     vertex is in it, so a vertex's collapse is replaced where it is rather than queued again */
+  private static class CollapseQueue {
+    final int[] heap;     // vertices
+    final int[] slot;     // per vertex, its place in heap, or -1
+    final int[] target;   // per vertex, where it would move
+    final double[] cost;  // per vertex, the error the move would add
+    int size;
+
+    CollapseQueue(int vertexCount) {
+      heap = new int[vertexCount];
+      slot = new int[vertexCount];
+      Arrays.fill(slot, -1);
+      target = new int[vertexCount];
+      cost = new double[vertexCount];
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    /* The vertex with the cheapest collapse */
+    int peek() {
+      return heap[0];
+    }
+
+    void set(int v, int to, double c) {
+      double old = cost[v];
+      target[v] = to;
+      cost[v] = c;
+      if (slot[v] < 0) {
+        heap[size] = v;
+        up(size++);
+      }
+      else if (c < old) up(slot[v]);
+      else down(slot[v]);
+    }
+
+    void remove(int v) {
+      int i = slot[v];
+      if (i < 0) return;
+      slot[v] = -1;
+      int last = heap[--size];
+      if (i == size) return;
+      heap[i] = last;
+      up(i);
+      down(slot[last]);
+    }
+
+    private void up(int i) {
+      int v = heap[i];
+      while (i > 0) {
+        int parent = (i - 1)/2;
+        if (cost[heap[parent]] <= cost[v]) break;
+        heap[i] = heap[parent];
+        slot[heap[i]] = i;
+        i = parent;
+      }
+      heap[i] = v;
+      slot[v] = i;
+    }
+
+    private void down(int i) {
+      int v = heap[i];
+      while (true) {
+        int child = 2*i + 1;
+        if (child >= size) break;
+        if (child + 1 < size && cost[heap[child + 1]] < cost[heap[child]]) child++;
+        if (cost[heap[child]] >= cost[v]) break;
+        heap[i] = heap[child];
+        slot[heap[i]] = i;
+        i = child;
+      }
+      heap[i] = v;
+      slot[v] = i;
+    }
+  }
+
+  /* Counts keyed by edge, in open addressing with linear probing, so counting allocates nothing */
+  private static class EdgeCounts {
+    private static final long EMPTY = -1;   // not a key, as positions are never negative
+
+    long[] keys;
+    int[] counts;
+    int size;   // keys in use, including any whose count has gone back to 0
+
+    EdgeCounts(int expected) {
+      int capacity = 16;
+      while (capacity < expected*2) capacity *= 2;
+      keys = new long[capacity];
+      Arrays.fill(keys, EMPTY);
+      counts = new int[capacity];
+    }
+
+    int get(long key) {
+      int i = slot(key);
+      return keys[i] == EMPTY ? 0 : counts[i];
+    }
+
+    /* Adds change to key's count, and returns the count before */
+    int add(long key, int change) {
+      int i = slot(key);
+      if (keys[i] == EMPTY) {
+        if ((size + 1)*2 > keys.length) {
+          grow();
+          i = slot(key);
+        }
+        keys[i] = key;
+        size++;
+      }
+      int before = counts[i];
+      counts[i] += change;
+      return before;
+    }
+
+    /* Where key is, or the empty slot it would go in */
+    int slot(long key) {
+      int mask = keys.length - 1;
+      int i = (int)(key*0x9e3779b97f4a7c15L >>> 32) & mask;
+      while (keys[i] != EMPTY && keys[i] != key) i = (i + 1) & mask;
+      return i;
+    }
+
+    /* Doubles the table, leaving out the keys whose count is 0 */
+    void grow() {
+      long[] oldKeys = keys;
+      int[] oldCounts = counts;
+      keys = new long[oldKeys.length*2];
+      Arrays.fill(keys, EMPTY);
+      counts = new int[keys.length];
+      size = 0;
+      for (int i=0; i<oldKeys.length; i++) {
+        if (oldKeys[i] == EMPTY || oldCounts[i] == 0) continue;
+        int j = slot(oldKeys[i]);
+        keys[j] = oldKeys[i];
+        counts[j] = oldCounts[i];
+        size++;
+      }
+    }
+  }
+
+  private static class IntList {
+    int[] data = new int[8];
+    int size;
+
+    void add(int value) {
+      if (size == data.length) data = Arrays.copyOf(data, size*2);
+      data[size++] = value;
+    }
+  }
+
+}
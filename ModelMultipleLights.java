@@ -13,10 +13,20 @@ public class ModelMultipleLights {
   private Mat4 modelMatrix;
   private Shader shader;
   private Material material;
+  private int materialId;   // the material's index in MaterialLibrary
   private Camera camera;
   private Light[] lights;
   private Texture diffuse;
   private Texture specular;
+  private final Mat4 mvpMatrix = new Mat4(1);   // reused every frame
+  private final float[] normalMatrix = new float[9];
+  private final Vec3 viewPos = new Vec3();
+
+  // uniform handles, resolved for handlesShader so that render does no string work
+  private Shader handlesShader;
+  private UniformHandle modelU, mvpMatrixU, normalMatrixU, viewPosU;
+  private UniformHandle materialIndexU;
+  private UniformHandle firstTextureU, secondTextureU;
 
   public ModelMultipleLights() {
     name = null;
@@ -35,6 +45,7 @@ public class ModelMultipleLights {
     this.modelMatrix = modelMatrix;
     this.shader = shader;
     this.material = material;
+    this.materialId = MaterialLibrary.intern(material);
     this.lights = lights;
     this.camera = camera;
     this.diffuse = diffuse;
@@ -65,6 +76,12 @@ public class ModelMultipleLights {
 
   public void setMaterial(Material material) {
     this.material = material;
+    this.materialId = MaterialLibrary.intern(material);
+  }
+
+  /* The material's id in MaterialLibrary; models with equal ids can be drawn without changing material */
+  public int getMaterialId() {
+    return materialId;
   }
 
   public void setShader(Shader shader) {
@@ -87,6 +104,30 @@ public class ModelMultipleLights {
     this.specular = t;
   }
 
+  Mesh getMesh() {
+    return mesh;
+  }
+
+  Mat4 getModelMatrix() {
+    return modelMatrix;
+  }
+
+  Shader getShader() {
+    return shader;
+  }
+
+  Texture getDiffuse() {
+    return diffuse;
+  }
+
+  Texture getSpecular() {
+    return specular;
+  }
+
+  Light[] getLights() {
+    return lights;
+  }
+
   public void renderName(GL3 gl) {
     System.out.println("Name = " + name);
   }
@@ -95,45 +136,39 @@ public class ModelMultipleLights {
     render(gl, modelMatrix);
   }
 
+  /* Hands the model to batch to be drawn at its next flush, or draws it now if batch is null or cannot take it */
+  public void submit(GL3 gl, IndirectRenderer batch) {
+    if (batch == null || mesh_null() || !batch.add(gl, this)) render(gl);
+  }
+
   // second version of render is so that modelMatrix can be overriden with a new parameter
   public void render(GL3 gl, Mat4 modelMatrix) {
     if (mesh_null()) {
       System.out.println("Error: null in model render");
       return;
     }
+    if (!shader.isReady(gl)) return;   // still compiling; the model appears once it has linked
 
-    Mat4 mvpMatrix = Mat4.multiply(camera.getPerspectiveMatrix(), Mat4.multiply(camera.getViewMatrix(), modelMatrix));
+    Mat4.multiplyInto(camera.getViewMatrix(), modelMatrix, mvpMatrix);
+    mvpMatrix.preMultiply(camera.getPerspectiveMatrix());
     shader.use(gl);
-    shader.setFloatArray(gl, "model", modelMatrix.toFloatArrayForGLSL());
-    shader.setFloatArray(gl, "mvpMatrix", mvpMatrix.toFloatArrayForGLSL());
+    if (handlesShader != shader) resolveUniforms();
+    shader.setMat4(gl, modelU, modelMatrix);
+    shader.setMat4(gl, mvpMatrixU, mvpMatrix);
+    shader.setMat3(gl, normalMatrixU, modelMatrix.normalMatrix(normalMatrix));
 
-    shader.setVec3(gl, "viewPos", camera.getPosition());
-
-    shader.setInt(gl,"numLights", lights.length);
+    shader.setVec3(gl, viewPosU, camera.getPositionInto(viewPos));
+    // the lights come from the LightBlock uniform buffer, filled once per frame by Light.updateBlock
 
-    for (int i=0; i<lights.length; i++) {
-      shader.setVec3(gl, "lights["+i+"].position", lights[i].getPosition());
-      shader.setVec3(gl, "lights["+i+"].direction", lights[i].getDirection());
-      shader.setFloat(gl, "lights["+i+"].cutOff", lights[i].getCutOff());
-      shader.setFloat(gl, "lights["+i+"].outerCutOff", lights[i].getOuterCutOff());
-      shader.setInt(gl, "lights["+i+"].on", lights[i].isOn() ? 1 : 0);
-      shader.setVec3(gl, "lights["+i+"].ambient", lights[i].getMaterial().getAmbient());
-      shader.setVec3(gl, "lights["+i+"].diffuse", lights[i].getMaterial().getDiffuse());
-      shader.setVec3(gl, "lights["+i+"].specular", lights[i].getMaterial().getSpecular());
-    }
-
-    shader.setVec3(gl, "material.ambient", material.getAmbient());
-    shader.setVec3(gl, "material.diffuse", material.getDiffuse());
-    shader.setVec3(gl, "material.specular", material.getSpecular());
-    shader.setFloat(gl, "material.shininess", material.getShininess());
+    shader.setInt(gl, materialIndexU, materialId);   // the values are in the MaterialBlock table
 
     if (diffuse!=null) {
-      shader.setInt(gl, "first_texture", 0);  // be careful to match these with GL_TEXTURE0 and GL_TEXTURE1
+      shader.setInt(gl, firstTextureU, 0);  // be careful to match these with GL_TEXTURE0 and GL_TEXTURE1
       gl.glActiveTexture(GL.GL_TEXTURE0);
       diffuse.bind(gl);
     }
     if (specular!=null) {
-      shader.setInt(gl, "second_texture", 1);
+      shader.setInt(gl, secondTextureU, 1);
       gl.glActiveTexture(GL.GL_TEXTURE1);
       specular.bind(gl);
     }
@@ -142,12 +177,26 @@ public class ModelMultipleLights {
     mesh.render(gl);
   }
 
+  /* Looks up every uniform used by render once per shader */
+  private void resolveUniforms() {
+    modelU = shader.getUniform("model");
+    mvpMatrixU = shader.getUniform("mvpMatrix");
+    normalMatrixU = shader.getUniform("normalMatrix");
+    viewPosU = shader.getUniform("viewPos");
+    materialIndexU = shader.getUniform("materialIndex");
+    firstTextureU = shader.getUniform("first_texture");
+    secondTextureU = shader.getUniform("second_texture");
+    handlesShader = shader;
+  }
+
   private boolean mesh_null() {
     return (mesh==null);
   }
 
+  // the model owns one reference to its mesh and its shader, normally from GeometryLibrary and ShaderLibrary
   public void dispose(GL3 gl) {
-    mesh.dispose(gl);  // only need to dispose of mesh
+    GeometryLibrary.release(gl, mesh);
+    if (shader != null) ShaderLibrary.release(gl, shader);
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts Wavefront OBJ files into .mesh files, see MeshFile. Only geometry is read: v, vt, vn
+ * and f lines; everything else (groups, materials, lines, ...) is skipped. Faces with more than
+ * three corners are split into fans, and corners without a normal get the face's flat normal.
+ * The result goes through MeshOptimizer, as GeometryLibrary's meshes do, and MeshSimplifier's
+ * levels of detail are built from it and written with it, for LodModel.
+ *
+ * Run as: java ObjImporter in.obj out.mesh [compact|floats]
+ */
+
+public class ObjImporter {
+
+  private ObjImporter() {
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 2 || args.length > 3) {
+      System.err.println("usage: java ObjImporter in.obj out.mesh [compact|floats]");
+      System.exit(2);
+    }
+    VertexFormat format = args.length == 3 ? VertexFormat.byName(args[2]) : VertexFormat.COMPACT;
+    if (format == null) {
+      System.err.println("[error] Unknown vertex format: " + args[2]);
+      System.exit(2);
+    }
+    try {
+      MeshOptimizer.Result mesh = convert(Paths.get(args[0]), Paths.get(args[1]), format);
+      System.out.println(args[1] + ": " + mesh);
+    }
+    catch (IOException e) {
+      System.err.println("[error] " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Reads obj, optimizes it, builds its levels of detail and writes them to mesh.
+   *
+   * @return  The optimized data that was written as the full mesh.
+   */
+  public static MeshOptimizer.Result convert(Path obj, Path mesh, VertexFormat format) throws IOException {
+    Obj parsed = read(obj);
+    MeshOptimizer.Result optimized = MeshOptimizer.optimize(parsed.vertices(), parsed.indices());
+    MeshSimplifier.Level[] levels = MeshSimplifier.buildLevels(optimized.vertices, optimized.indices);
+    int vertexCount = optimized.vertices.length/VertexFormat.INPUT_FLOATS;
+    for (int i=1; i<levels.length; i++) {   // collapses leave triangles in the full mesh's order
+      int[] cached = MeshOptimizer.optimizeVertexCache(levels[i].indices, vertexCount);
+      levels[i] = new MeshSimplifier.Level(cached, levels[i].error);
+    }
+    MeshFile.write(mesh, optimized.vertices, levels, format);
+    return optimized;
+  }
+
+  private static Obj read(Path file) throws IOException {
+    Obj obj = new Obj();
+    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      int lineNumber = 0;
+      while ((line = in.readLine()) != null) {
+        lineNumber++;
+        String[] tokens = line.trim().split("\\s+");
+        try {
+          switch (tokens[0]) {
+            case "v":  obj.positions.add(parse(tokens, 1), parse(tokens, 2), parse(tokens, 3)); break;
+            case "vt": obj.texCoords.add(parse(tokens, 1), tokens.length > 2 ? parse(tokens, 2) : 0); break;
+            case "vn": obj.normals.add(parse(tokens, 1), parse(tokens, 2), parse(tokens, 3)); break;
+            case "f":  obj.addFace(tokens); break;
+            default:   // not geometry
+          }
+        }
+        catch (NumberFormatException | IndexOutOfBoundsException e) {
+          throw new IOException(file + ":" + lineNumber + ": cannot read \"" + line.trim() + "\"");
+        }
+      }
+    }
+    if (obj.indices.size == 0) throw new IOException(file + " has no faces");
+    return obj;
+  }
+
+  private static float parse(String[] tokens, int i) {
+    return Float.parseFloat(tokens[i]);
+  }
+
+  /* The geometry read so far. Corners are turned into vertices as faces are read. */
+  private static class Obj {
+    final Floats positions = new Floats(), texCoords = new Floats(), normals = new Floats();
+    final Floats vertices = new Floats();
+    final Ints indices = new Ints();
+    final Map<String,Integer> cornerVertices = new HashMap<String,Integer>();   // "v/vt/vn" -> vertex
+
+    void addFace(String[] tokens) {
+      int corners = tokens.length - 1;
+      if (corners < 3) throw new IndexOutOfBoundsException();
+      int[][] refs = new int[corners][];
+      for (int c=0; c<corners; c++) {
+        refs[c] = corner(tokens[c+1]);
+      }
+      float[] flat = null;   // only needed if a corner has no normal
+      int[] face = new int[corners];
+      for (int c=0; c<corners; c++) {
+        if (refs[c][2] < 0 && flat == null) flat = faceNormal(refs);
+        face[c] = vertex(refs[c], flat);
+      }
+      for (int c=1; c+1<corners; c++) {
+        indices.add(face[0]);
+        indices.add(face[c]);
+        indices.add(face[c+1]);
+      }
+    }
+
+    /* The 0-based position, texture coordinate and normal of "v", "v/vt", "v//vn" or "v/vt/vn",
+       with -1 for the missing ones. Negative OBJ indices count back from the last one read. */
+    int[] corner(String token) {
+      String[] parts = token.split("/", -1);
+      int[] ref = {-1, -1, -1};
+      int[] counts = {positions.size/3, texCoords.size/2, normals.size/3};
+      for (int k=0; k<3 && k<parts.length; k++) {
+        if (parts[k].isEmpty()) continue;
+        int i = Integer.parseInt(parts[k]);
+        ref[k] = i < 0 ? counts[k] + i : i - 1;
+        if (ref[k] < 0 || ref[k] >= counts[k]) throw new IndexOutOfBoundsException();
+      }
+      if (ref[0] < 0) throw new IndexOutOfBoundsException();
+      return ref;
+    }
+
+    int vertex(int[] ref, float[] flat) {
+      String key = ref[2] < 0 ? ref[0] + "/" + ref[1] + "/" + Arrays.toString(flat)
+                              : ref[0] + "/" + ref[1] + "/" + ref[2];
+      Integer v = cornerVertices.get(key);
+      if (v != null) return v;
+      v = vertices.size/VertexFormat.INPUT_FLOATS;
+      vertices.add(positions.get(ref[0]*3), positions.get(ref[0]*3+1), positions.get(ref[0]*3+2));
+      if (ref[2] < 0) vertices.add(flat[0], flat[1], flat[2]);
+      else vertices.add(normals.get(ref[2]*3), normals.get(ref[2]*3+1), normals.get(ref[2]*3+2));
+      if (ref[1] < 0) vertices.add(0, 0);
+      else vertices.add(texCoords.get(ref[1]*2), texCoords.get(ref[1]*2+1));
+      cornerVertices.put(key, v);
+      return v;
+    }
+
+    /* Newell's method, which also copes with faces that are not quite planar */
+    float[] faceNormal(int[][] refs) {
+      float x = 0, y = 0, z = 0;
+      for (int c=0; c<refs.length; c++) {
+        int a = refs[c][0]*3, b = refs[(c+1)%refs.length][0]*3;
+        float ay = positions.get(a+1), az = positions.get(a+2), ax = positions.get(a);
+        float by = positions.get(b+1), bz = positions.get(b+2), bx = positions.get(b);
+        x += (ay - by)*(az + bz);
+        y += (az - bz)*(ax + bx);
+        z += (ax - bx)*(ay + by);
+      }
+      float length = (float)Math.sqrt(x*x + y*y + z*z);
+      if (length == 0) return new float[] {0, 1, 0};
+      return new float[] {x/length, y/length, z/length};
+    }
+
+    float[] vertices() {
+      return vertices.toArray();
+    }
+
+    int[] indices() {
+      return indices.toArray();
+    }
+  }
+
+  private static class Floats {
+    float[] data = new float[1024];
+    int size;
+
+    void add(float... values) {
+      if (size + values.length > data.length) data = Arrays.copyOf(data, Math.max(data.length*2, size + values.length));
+      System.arraycopy(values, 0, data, size, values.length);
+      size += values.length;
+    }
+
+    float get(int i) {
+      return data[i];
+    }
+
+    float[] toArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+
+  private static class Ints {
+    int[] data = new int[1024];
+    int size;
+
+    void add(int value) {
+      if (size == data.length) data = Arrays.copyOf(data, size*2);
+      data[size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.*;
+
+/**
+ * Keeps linked shader programs on disk, using glGetProgramBinary and glProgramBinary, so
+ * that later runs can skip the GLSL compiler. Each file is named by a SHA-256 hash of the
+ * final shader sources (so defines are included) and the driver's vendor, renderer and
+ * version strings, since a binary is only valid for the driver that produced it.
+ * A blob the driver rejects, e.g. after a driver update with the same version string,
+ * is deleted and the caller compiles from source as usual.
+ */
+
+public class ProgramBinaryCache {
+
+  private static final boolean ENABLED = true;
+  private static final Path DIRECTORY = Paths.get("shadercache");
+  private static final int MAGIC = 0x50424331;   // "PBC1", the file layout version
+
+  private static String driver;     // vendor, renderer and version, read once
+  private static Boolean supported;
+
+  private ProgramBinaryCache() {
+  }
+
+  /* True if the cache is switched on and the context can retrieve and load program binaries */
+  public static boolean isSupported(GL3 gl) {
+    if (supported == null) {
+      boolean s = ENABLED && gl.isFunctionAvailable("glGetProgramBinary")
+                          && gl.isFunctionAvailable("glProgramBinary");
+      if (s) {
+        int[] formats = new int[1];
+        gl.glGetIntegerv(GL2ES2.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        s = formats[0] > 0;
+      }
+      supported = s;
+    }
+    return supported;
+  }
+
+  /**
+   * Creates the key for a program from its final sources and the current driver.
+   *
+   * @return  A hex string that is used as the file name.
+   */
+  public static String key(GL3 gl, String vertexSource, String fragmentSource) {
+    if (driver == null) {
+      driver = gl.glGetString(GL.GL_VENDOR) + "\n" + gl.glGetString(GL.GL_RENDERER) + "\n"
+             + gl.glGetString(GL.GL_VERSION);
+    }
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(vertexSource.getBytes(StandardCharsets.UTF_8));
+      md.update((byte)0);
+      md.update(fragmentSource.getBytes(StandardCharsets.UTF_8));
+      md.update((byte)0);
+      md.update(driver.getBytes(StandardCharsets.UTF_8));
+      StringBuilder sb = new StringBuilder();
+      for (byte b : md.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    }
+    catch (NoSuchAlgorithmException e) {   // every Java platform must provide SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Creates a program from the cached binary for key.
+   *
+   * @return  The linked program, or 0 if there is no usable binary.
+   */
+  public static int load(GL3 gl, String key) {
+    if (!isSupported(gl)) return 0;
+    Path file = DIRECTORY.resolve(key);
+    if (!Files.isRegularFile(file)) return 0;
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(file);
+    }
+    catch (IOException e) {
+      return 0;
+    }
+    ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+    if (bytes.length <= 8 || header.getInt(0) != MAGIC) {
+      discard(file);
+      return 0;
+    }
+    int format = header.getInt(4);
+    ByteBuffer blob = Buffers.newDirectByteBuffer(bytes.length-8);
+    blob.put(bytes, 8, bytes.length-8).rewind();
+    int program = gl.glCreateProgram();
+    gl.glProgramBinary(program, format, blob, blob.capacity());
+    int[] status = new int[1];
+    gl.glGetProgramiv(program, GL2ES2.GL_LINK_STATUS, status, 0);
+    if (status[0] == GL.GL_FALSE) {
+      gl.glDeleteProgram(program);
+      discard(file);
+      return 0;
+    }
+    return program;
+  }
+
+  /**
+   * Stores the binary of a linked program under key. For drivers that need it, the program
+   * should have been linked with GL_PROGRAM_BINARY_RETRIEVABLE_HINT set, see prepare.
+   * Failures are reported and otherwise ignored, since the cache is only an optimisation.
+   */
+  public static void save(GL3 gl, String key, int program) {
+    if (!isSupported(gl)) return;
+    int[] status = new int[1];
+    gl.glGetProgramiv(program, GL2ES2.GL_LINK_STATUS, status, 0);
+    if (status[0] == GL.GL_FALSE) return;
+    int[] length = new int[1];
+    gl.glGetProgramiv(program, GL2ES2.GL_PROGRAM_BINARY_LENGTH, length, 0);
+    if (length[0] <= 0) return;
+    ByteBuffer blob = Buffers.newDirectByteBuffer(length[0]);
+    int[] written = new int[1];
+    int[] format = new int[1];
+    gl.glGetProgramBinary(program, length[0], written, 0, format, 0, blob);
+    if (written[0] <= 0) return;
+    byte[] bytes = new byte[8+written[0]];
+    ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN).putInt(MAGIC).putInt(format[0]);
+    blob.get(bytes, 8, written[0]);
+    try {
+      Files.createDirectories(DIRECTORY);
+      Path tmp = DIRECTORY.resolve(key+".tmp");
+      Files.write(tmp, bytes);
+      Files.move(tmp, DIRECTORY.resolve(key), StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (IOException e) {
+      System.err.println("[warning] Unable to cache program binary: " + e.getMessage());
+    }
+  }
+
+  /* Asks the driver to keep a retrievable binary for program; call before linking */
+  public static void prepare(GL3 gl, int program) {
+    if (isSupported(gl)) {
+      gl.glProgramParameteri(program, GL2ES3.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL.GL_TRUE);
+    }
+  }
+
+  private static void discard(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    }
+    catch (IOException e) {
+      // a stale file is simply tried, and rejected, again next time
+    }
+  }
+
+}
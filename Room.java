@@ -12,6 +12,7 @@ import com.jogamp.opengl.util.texture.*;
 public class Room {
 
   private ArrayList<ModelMultipleLights> parts;
+  private InstancedModel wallPanels, frameBars;   // the left wall around the window, one draw each
   private Camera camera;
   private Light[] lights;
   private Texture floorTex, wallTex, windowTex;
@@ -54,7 +55,7 @@ public class Room {
     parts.add(makeFloor(gl));
     parts.add(makeBackWall(gl));
     parts.add(makeRightWall(gl));
-    parts.addAll(makeLeftWall(gl));
+    makeLeftWall(gl);
     parts.add(makeCloud(gl));
     parts.add(makeNoticeBoard(gl));
     parts.add(makePoster(gl, -2f, poster1Tex, null));
@@ -68,10 +69,9 @@ public class Room {
     String name = "floor";
     Vec3 basecolor = new Vec3(0.5f, 0.5f, 0.5f);
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f, 0.3f, 0.3f), 4.0f);
-    Mat4 modelMatrix = new Mat4(1);
-    modelMatrix = Mat4.multiply(Mat4Transform.scale(size, 1f, size), modelMatrix);
-    Mesh mesh = new Mesh(gl, TwoTriangles.vertices.clone(), TwoTriangles.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
+    Mat4 modelMatrix = Mat4Transform.scale(size, 1f, size);
+    Mesh mesh = GeometryLibrary.acquire(gl, TwoTriangles.vertices, TwoTriangles.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, floorTex, null, lights);
     return new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera, floorTex);
   }
 
@@ -79,12 +79,9 @@ public class Room {
     String name = "back_wall";
     Vec3 basecolor = new Vec3(0.5f, 0.5f, 0.5f);
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f, 0.3f, 0.3f), 4.0f);
-    Mat4 modelMatrix = new Mat4(1);
-    modelMatrix = Mat4.multiply(Mat4Transform.scale(size, 1f, size), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundX(90), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.translate(0, size * 0.5f, -size * 0.5f), modelMatrix);
-    Mesh mesh = new Mesh(gl, TwoTriangles.vertices.clone(), TwoTriangles.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_0t.txt");
+    Mat4 modelMatrix = Mat4Transform.trs(0, size * 0.5f, -size * 0.5f,  90, 0, 0,  size, 1f, size);
+    Mesh mesh = GeometryLibrary.acquire(gl, TwoTriangles.vertices, TwoTriangles.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, null, null, lights);
     return new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera);
   }
 
@@ -92,11 +89,7 @@ public class Room {
     String name = "right_wall";
     Vec3 basecolor = new Vec3(0.5f, 0.5f, 0.5f);
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f, 0.3f, 0.3f), 4.0f);
-    Mat4 modelMatrix = new Mat4(1);
-    modelMatrix = Mat4.multiply(Mat4Transform.scale(size, 1f, size), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundY(90), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundZ(90), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.translate(size * 0.5f, size * 0.5f, 0), modelMatrix);
+    Mat4 modelMatrix = Mat4Transform.trs(size * 0.5f, size * 0.5f, 0,  0, 90, 90,  size, 1f, size);
 
     float[] vertices = {
       -0.5f, 0.0f, -0.5f,  0.0f, 1.0f, 0.0f,  0.0f, 4.0f,
@@ -104,15 +97,18 @@ public class Room {
        0.5f, 0.0f,  0.5f,  0.0f, 1.0f, 0.0f,  4.0f, 0.0f,
        0.5f, 0.0f, -0.5f,  0.0f, 1.0f, 0.0f,  4.0f, 4.0f
     };
-    Mesh mesh = new Mesh(gl, vertices, TwoTriangles.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
+    Mesh mesh = GeometryLibrary.acquire(gl, vertices, TwoTriangles.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, wallTex, null, lights);
     return new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera, wallTex);
   }
 
-  private ArrayList<ModelMultipleLights> makeLeftWall(GL3 gl) {
-    ArrayList<ModelMultipleLights> wall = new ArrayList<>();
-    Vec3 basecolor = new Vec3(0.5f, 0.5f, 0.5f);
-    Material material = new Material(basecolor, basecolor, new Vec3(0.3f, 0.3f, 0.3f), 4.0f);
+  private void makeLeftWall(GL3 gl) {
+    Mesh mesh = GeometryLibrary.acquire(gl, TwoTriangles.vertices, TwoTriangles.indices);
+    wallPanels = new InstancedModel(gl, "left_wall", mesh, ShaderLibrary.acquireStandard(gl, null, null, lights, true),
+                                    camera, null, null, 4);
+    mesh = GeometryLibrary.acquire(gl, TwoTriangles.vertices, TwoTriangles.indices);
+    frameBars = new InstancedModel(gl, "frame", mesh, ShaderLibrary.acquireStandard(gl, null, null, lights, true),
+                                   camera, null, null, 4);
 
     float windowW = 5f;
     float windowH = 5f;
@@ -120,24 +116,22 @@ public class Room {
     float borderH = (size - windowH) * 0.5f;
 
     // top and bottom segments
-    wall.add(makeWallPanel(gl, size, borderH, size - borderH * 0.5f, 0));
-    wall.add(makeWallPanel(gl, size, borderH, borderH * 0.5f, 0));
+    addWallPanel(size, borderH, size - borderH * 0.5f, 0);
+    addWallPanel(size, borderH, borderH * 0.5f, 0);
 
     // left and right segments
-    wall.add(makeWallPanel(gl, sideW, windowH, borderH + windowH * 0.5f, -windowW * 0.5f - sideW * 0.5f));
-    wall.add(makeWallPanel(gl, sideW, windowH, borderH + windowH * 0.5f, windowW * 0.5f + sideW * 0.5f));
+    addWallPanel(sideW, windowH, borderH + windowH * 0.5f, -windowW * 0.5f - sideW * 0.5f);
+    addWallPanel(sideW, windowH, borderH + windowH * 0.5f, windowW * 0.5f + sideW * 0.5f);
 
     // frame around the cutout
     float frame = 0.2f;
     float windowTop = borderH + windowH;
     float windowBottom = borderH;
     float windowCentreY = borderH + windowH * 0.5f;
-    wall.add(makeFramePanel(gl, windowW + 2 * frame, frame, windowTop + frame * 0.5f, 0));
-    wall.add(makeFramePanel(gl, windowW + 2 * frame, frame, windowBottom - frame * 0.5f, 0));
-    wall.add(makeFramePanel(gl, frame, windowH + 2 * frame, windowCentreY, -windowW * 0.5f - frame * 0.5f));
-    wall.add(makeFramePanel(gl, frame, windowH + 2 * frame, windowCentreY, windowW * 0.5f + frame * 0.5f));
-
-    return wall;
+    addFramePanel(windowW + 2 * frame, frame, windowTop + frame * 0.5f, 0);
+    addFramePanel(windowW + 2 * frame, frame, windowBottom - frame * 0.5f, 0);
+    addFramePanel(frame, windowH + 2 * frame, windowCentreY, -windowW * 0.5f - frame * 0.5f);
+    addFramePanel(frame, windowH + 2 * frame, windowCentreY, windowW * 0.5f + frame * 0.5f);
   }
 
   private ModelMultipleLights makeCloud(GL3 gl) {
@@ -149,42 +143,22 @@ public class Room {
     float w = windowW + 0.5f;
     float h = windowH + 0.5f;
     float windowCentreY = (size - windowH) * 0.5f + windowH * 0.5f;
-    Mat4 modelMatrix = new Mat4(1);
-    modelMatrix = Mat4.multiply(Mat4Transform.scale(w, 1f, h), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundY(90), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundZ(-90), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.translate(-size * 0.5f - 0.5f, windowCentreY, 0), modelMatrix);
-    Mesh mesh = new Mesh(gl, TwoTriangles.vertices.clone(), TwoTriangles.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
+    Mat4 modelMatrix = Mat4Transform.trs(-size * 0.5f - 0.5f, windowCentreY, 0,  0, 90, -90,  w, 1f, h);
+    Mesh mesh = GeometryLibrary.acquire(gl, TwoTriangles.vertices, TwoTriangles.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, windowTex, null, lights);
     return new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera, windowTex);
   }
 
-  private ModelMultipleLights makeWallPanel(GL3 gl, float w, float h, float y, float z) {
-    String name = "left_wall";
+  private void addWallPanel(float w, float h, float y, float z) {
     Vec3 basecolor = new Vec3(0.5f, 0.5f, 0.5f);
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f, 0.3f, 0.3f), 4.0f);
-    Mat4 modelMatrix = new Mat4(1);
-    modelMatrix = Mat4.multiply(Mat4Transform.scale(w, 1f, h), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundY(90), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundZ(-90), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.translate(-size * 0.5f, y, z), modelMatrix);
-    Mesh mesh = new Mesh(gl, TwoTriangles.vertices.clone(), TwoTriangles.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_0t.txt");
-    return new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera);
+    wallPanels.addInstance(Mat4Transform.trs(-size * 0.5f, y, z,  0, 90, -90,  w, 1f, h), material);
   }
 
-  private ModelMultipleLights makeFramePanel(GL3 gl, float w, float h, float y, float z) {
-    String name = "frame";
+  private void addFramePanel(float w, float h, float y, float z) {
     Vec3 basecolor = new Vec3(0.0f, 0.0f, 0.0f);
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f, 0.3f, 0.3f), 4.0f);
-    Mat4 modelMatrix = new Mat4(1);
-    modelMatrix = Mat4.multiply(Mat4Transform.scale(w, 1f, h), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundY(90), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundZ(-90), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.translate(-size * 0.5f + 0.01f, y, z), modelMatrix);
-    Mesh mesh = new Mesh(gl, TwoTriangles.vertices.clone(), TwoTriangles.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_0t.txt");
-    return new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera);
+    frameBars.addInstance(Mat4Transform.trs(-size * 0.5f + 0.01f, y, z,  0, 90, -90,  w, 1f, h), material);
   }
 
   private ModelMultipleLights makeNoticeBoard(GL3 gl) {
@@ -193,12 +167,9 @@ public class Room {
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f, 0.3f, 0.3f), 4.0f);
     float w = 6f;
     float h = 3f;
-    Mat4 modelMatrix = new Mat4(1);
-    modelMatrix = Mat4.multiply(Mat4Transform.scale(w, 1f, h), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundX(90), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.translate(0, size * 0.6f, -size * 0.5f + 0.05f), modelMatrix);
-    Mesh mesh = new Mesh(gl, TwoTriangles.vertices.clone(), TwoTriangles.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
+    Mat4 modelMatrix = Mat4Transform.trs(0, size * 0.6f, -size * 0.5f + 0.05f,  90, 0, 0,  w, 1f, h);
+    Mesh mesh = GeometryLibrary.acquire(gl, TwoTriangles.vertices, TwoTriangles.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, noticeboardTex, null, lights);
     return new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera, noticeboardTex);
   }
 
@@ -208,29 +179,35 @@ public class Room {
     Material material = new Material(basecolor, basecolor, new Vec3(0.3f, 0.3f, 0.3f), 4.0f);
     float w = 1f;
     float h = 1.5f;
-    Mat4 modelMatrix = new Mat4(1);
-    modelMatrix = Mat4.multiply(Mat4Transform.scale(w, 1f, h), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.rotateAroundX(90), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.translate(xOffset, size * 0.6f, -size * 0.5f + 0.06f), modelMatrix);
-    Mesh mesh = new Mesh(gl, TwoTriangles.vertices.clone(), TwoTriangles.indices.clone());
-    Shader shader;
-    ModelMultipleLights poster;
-    if (specular != null) {
-      shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_2t.txt");
-      poster = new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera, diffuse, specular);
-    } else {
-      shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
-      poster = new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera, diffuse);
-    }
-    return poster;
+    Mat4 modelMatrix = Mat4Transform.trs(xOffset, size * 0.6f, -size * 0.5f + 0.06f,  90, 0, 0,  w, 1f, h);
+    Mesh mesh = GeometryLibrary.acquire(gl, TwoTriangles.vertices, TwoTriangles.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, diffuse, specular, lights);
+    return new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera, diffuse, specular);
   }
 
   public void render(GL3 gl) {
+    render(gl, null);
+  }
+
+  /* As render, but the parts go to batch if it is not null, see IndirectRenderer */
+  public void render(GL3 gl, IndirectRenderer batch) {
+    for (ModelMultipleLights m : parts) {
+      m.submit(gl, batch);
+    }
+    wallPanels.render(gl);
+    frameBars.render(gl);
+    if (table != null) {
+      table.render(gl, batch);
+    }
+  }
+
+  /* Makes the parts' buckets in batch ahead of the first frame, see IndirectRenderer.prepare */
+  public void prepare(GL3 gl, IndirectRenderer batch) {
     for (ModelMultipleLights m : parts) {
-      m.render(gl);
+      batch.prepare(gl, m);
     }
     if (table != null) {
-      table.render(gl);
+      table.prepare(gl, batch);
     }
   }
 
@@ -238,6 +215,8 @@ public class Room {
     for (ModelMultipleLights m : parts) {
       m.dispose(gl);
     }
+    wallPanels.dispose(gl);
+    frameBars.dispose(gl);
     noticeboardTex.destroy(gl);
     poster1Tex.destroy(gl);
     poster2Tex.destroy(gl);
@@ -1,73 +1,320 @@
 import gmaths.*;
-import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.Charset;
+import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.*;
-import com.jogamp.opengl.util.glsl.*;  
-  
+
+/**
+ * A GLSL program made from a vertex and a fragment shader.
+ * Building a program does not block the GL thread: the constructor only starts reading the
+ * sources on a background thread, issue() hands them to the driver (with every other pending
+ * program, see ShaderLibrary.issueAll) without asking for any result, and isReady() only checks
+ * the link status once the program is needed. With GL_KHR_parallel_shader_compile the driver
+ * compiles on its own threads and isReady() returns false until it has finished, so callers
+ * skip their draw rather than wait.
+ */
 public class Shader {
   
   private static final boolean DISPLAY_SHADERS = false;
-  
+  private static final int GL_COMPLETION_STATUS_KHR = 0x91B1;   // from GL_KHR_parallel_shader_compile
+
+  private static final int READING = 0, COMPILING = 1, READY = 2, FAILED = 3;
+
+  // uniform blocks shared by all programs, and the binding point each is attached to
+  private static final String[] BLOCK_NAMES = { "LightBlock", "MaterialBlock" };
+  private static final int[] BLOCK_BINDINGS = { Light.BLOCK_BINDING, MaterialLibrary.BLOCK_BINDING };
+
+  private static int current;   // the program last bound by use, so rebinding it can be skipped
+  private static Boolean parallelCompile;
+  private static final ExecutorService reader = Executors.newFixedThreadPool(
+      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())), r -> {
+        Thread t = new Thread(r, "shader-source-reader");
+        t.setDaemon(true);
+        return t;
+      });
+
   private int ID;
+  private int state = READING;
+  private Future<String[]> sources;
   private String vertexShaderSource;
   private String fragmentShaderSource;
+  private int vertexShaderID, fragmentShaderID;
+  private String binaryKey;
+  private final FloatBuffer matrixBuffer = Buffers.newDirectFloatBuffer(16);   // reused by setMat4
+  private UniformHandle[] uniforms;   // every active uniform, indexed by UniformHandle.getIndex()
+  private final HashMap<String,UniformHandle> uniformsByName = new HashMap<String,UniformHandle>();
+  private long uploadsIssued, uploadsSkipped;
   
-  /* The constructor */
-  public Shader(GL3 gl, String vertexPath, String fragmentPath) {
+  /* The constructor. Each define, e.g. "NUM_TEXTURES 1", is added to both sources as a #define 
+     line straight after #version. Prefer ShaderLibrary.acquire, which shares identical programs.
+     The files are read in the background; nothing is compiled until issue or isReady is called. */
+  public Shader(GL3 gl, String vertexPath, String fragmentPath, String... defines) {
+    sources = reader.submit(() -> {
+      String vs = new String(Files.readAllBytes(Paths.get(vertexPath)), Charset.defaultCharset());
+      String fs = new String(Files.readAllBytes(Paths.get(fragmentPath)), Charset.defaultCharset());
+      if (defines.length > 0) {
+        vs = addDefines(vs, defines);
+        fs = addDefines(fs, defines);
+      }
+      return new String[]{ vs, fs };
+    });
+  }
+  
+  public int getID() {
+    return ID;
+  }
+
+  /**
+   * Starts building the program if that has not already been done: waits for the sources,
+   * then loads a cached program binary or issues the compiles and the link. No status is
+   * queried, so with a parallel-compiling driver this returns straight away.
+   */
+  public void issue(GL3 gl) {
+    if (state != READING) return;
     try {
-      vertexShaderSource = new String(Files.readAllBytes(Paths.get(vertexPath)), Charset.defaultCharset());
-      fragmentShaderSource = new String(Files.readAllBytes(Paths.get(fragmentPath)), Charset.defaultCharset());
+      String[] s = sources.get();
+      vertexShaderSource = s[0];
+      fragmentShaderSource = s[1];
     }
-    catch (IOException e) {
-      e.printStackTrace();
+    catch (InterruptedException | ExecutionException e) {
+      System.err.println("[error] Unable to read shader sources: " + e.getCause());
+      state = FAILED;
+      return;
     }
+    sources = null;
     if (DISPLAY_SHADERS) display();
-    ID = compileAndLink(gl);
+    binaryKey = ProgramBinaryCache.key(gl, vertexShaderSource, fragmentShaderSource);
+    ID = ProgramBinaryCache.load(gl, binaryKey);
+    if (ID != 0) {
+      binaryKey = null;   // linked already, and nothing to save
+    }
+    else {
+      compileAndLink(gl);
+    }
+    state = COMPILING;
   }
-  
-  public int getID() {
-    return ID;
+
+  /**
+   * Checks whether the program can be used, finishing it (link check, uniform table, 
+   * binary cache) the first time it is. A program that failed to build is never ready.
+   *
+   * @return  true if the program has linked.
+   */
+  public boolean isReady(GL3 gl) {
+    if (state == READY) return true;
+    if (state == FAILED) return false;
+    issue(gl);
+    if (state != COMPILING) return false;
+    if (isParallelCompile(gl)) {
+      int[] done = new int[1];
+      gl.glGetProgramiv(ID, GL_COMPLETION_STATUS_KHR, done, 0);
+      if (done[0] == GL.GL_FALSE) return false;
+    }
+    finish(gl);
+    return state == READY;
   }
   
   public void use(GL3 gl) {
+    if (current == ID) return;
     gl.glUseProgram(ID);
+    current = ID;
+  }
+
+  public void dispose(GL3 gl) {
+    if (sources != null) sources.cancel(false);
+    deleteShaders(gl);
+    if (ID == 0) return;
+    if (current == ID) {
+      gl.glUseProgram(0);
+      current = 0;
+    }
+    gl.glDeleteProgram(ID);
+    ID = 0;
   }
   
+  /**
+   * Gets the handle for a uniform, e.g. "lights[2].position". The lookup is done without
+   * calling OpenGL, so it is cheap, but callers that set the same uniform every frame should
+   * still resolve the handle once and keep it.
+   *
+   * @param name The name of the uniform, as written in GLSL.
+   * @return  The handle. If the uniform is not active its location is -1.
+   * @throws IllegalStateException if the program is not ready yet.
+   */
+  public UniformHandle getUniform(String name) {
+    if (state != READY) throw new IllegalStateException("shader is not ready; check isReady first");
+    UniformHandle u = uniformsByName.get(name);
+    if (u == null) {
+      u = new UniformHandle(name, -1, -1, 0);
+      uniformsByName.put(name, u);   // so that the next lookup of an inactive name also hits
+    }
+    return u;
+  }
+
+  public int getUniformCount() {
+    return uniforms.length;
+  }
+
+  public UniformHandle getUniform(int index) {
+    return uniforms[index];
+  }
+
+  /* The number of glUniform calls made, and the number skipped because the value was already set */
+  public long getUploadsIssued() {
+    return uploadsIssued;
+  }
+
+  public long getUploadsSkipped() {
+    return uploadsSkipped;
+  }
+
+  public void resetUploadCounts() {
+    uploadsIssued = 0;
+    uploadsSkipped = 0;
+  }
+
   public void setInt(GL3 gl, String name, int value) {
-    int location = gl.glGetUniformLocation(ID, name);
-    gl.glUniform1i(location, value);
+    setInt(gl, getUniform(name), value);
+  }
+
+  public void setInt(GL3 gl, UniformHandle u, int value) {
+    if (changedInt(u, value)) gl.glUniform1i(u.getLocation(), value);
   }
   
   public void setFloat(GL3 gl, String name, float value) {
-    int location = gl.glGetUniformLocation(ID, name);
-    gl.glUniform1f(location, value);
+    setFloat(gl, getUniform(name), value);
+  }
+
+  public void setFloat(GL3 gl, UniformHandle u, float value) {
+    if (changed(u, value)) gl.glUniform1f(u.getLocation(), value);
   }
   
   public void setFloat(GL3 gl, String name, float f1, float f2) {
-    int location = gl.glGetUniformLocation(ID, name);
-    gl.glUniform2f(location, f1, f2);
+    UniformHandle u = getUniform(name);
+    if (changed(u, f1, f2, 0, 0, 2)) gl.glUniform2f(u.getLocation(), f1, f2);
   }
   
   public void setFloat(GL3 gl, String name, float f1, float f2, float f3) {
-    int location = gl.glGetUniformLocation(ID, name);
-    gl.glUniform3f(location, f1, f2, f3);
+    setFloat(gl, getUniform(name), f1, f2, f3);
+  }
+
+  public void setFloat(GL3 gl, UniformHandle u, float f1, float f2, float f3) {
+    if (changed(u, f1, f2, f3, 0, 3)) gl.glUniform3f(u.getLocation(), f1, f2, f3);
   }
   
   public void setFloat(GL3 gl, String name, float f1, float f2, float f3, float f4) {
-    int location = gl.glGetUniformLocation(ID, name);
-    gl.glUniform4f(location, f1, f2, f3, f4);
+    UniformHandle u = getUniform(name);
+    if (changed(u, f1, f2, f3, f4, 4)) gl.glUniform4f(u.getLocation(), f1, f2, f3, f4);
   }
   
   public void setFloatArray(GL3 gl, String name, float[] f) {
-    int location = gl.glGetUniformLocation(ID, name);
-    gl.glUniformMatrix4fv(location, 1, false, f, 0);
+    UniformHandle u = getUniform(name);
+    if (changed(u, f, 16)) gl.glUniformMatrix4fv(u.getLocation(), 1, false, f, 0);
+  }
+  
+  public void setMat4(GL3 gl, String name, Mat4 m) {
+    setMat4(gl, getUniform(name), m);
+  }
+
+  /* Uploads m using its cached column-major values, so nothing is transposed or allocated */
+  public void setMat4(GL3 gl, UniformHandle u, Mat4 m) {
+    float[] columns = m.getColumnMajor();
+    if (!changed(u, columns, 16)) return;
+    matrixBuffer.put(columns).rewind();
+    gl.glUniformMatrix4fv(u.getLocation(), 1, false, matrixBuffer);
+  }
+  
+  public void setMat3(GL3 gl, String name, float[] f) {
+    setMat3(gl, getUniform(name), f);
+  }
+
+  public void setMat3(GL3 gl, UniformHandle u, float[] f) {
+    if (changed(u, f, 9)) gl.glUniformMatrix3fv(u.getLocation(), 1, false, f, 0);
   }
   
   public void setVec3(GL3 gl, String name, Vec3 v) {
-    int location = gl.glGetUniformLocation(ID, name);
-    gl.glUniform3f(location, v.x, v.y, v.z);
+    setVec3(gl, getUniform(name), v);
+  }
+
+  public void setVec3(GL3 gl, UniformHandle u, Vec3 v) {
+    setFloat(gl, u, v.x, v.y, v.z);
+  }
+
+  /* The shadow checks. Each compares the new value with the one last uploaded to u, records it 
+     and returns true if it differs, i.e. if the upload is needed. Floats are compared bit for bit,
+     so 0 and -0 count as different. Inactive uniforms never upload. */
+  private boolean changedInt(UniformHandle u, int value) {
+    if (shadow(u, 1) == null) return false;
+    if (u.shadowValid && u.intShadow == value) {
+      uploadsSkipped++;
+      return false;
+    }
+    u.intShadow = value;
+    u.shadowValid = true;
+    uploadsIssued++;
+    return true;
+  }
+
+  private boolean changed(UniformHandle u, float f) {
+    return changed(u, f, 0, 0, 0, 1);
+  }
+
+  private boolean changed(UniformHandle u, float f1, float f2, float f3, float f4, int n) {
+    float[] s = shadow(u, n);
+    if (s == null) return false;
+    if (u.shadowValid && same(s[0], f1) && same(s[1], f2) && same(s[2], f3) && same(s[3], f4)) {
+      uploadsSkipped++;
+      return false;
+    }
+    s[0] = f1;
+    s[1] = f2;
+    s[2] = f3;
+    s[3] = f4;
+    u.shadowValid = true;
+    uploadsIssued++;
+    return true;
+  }
+
+  private boolean changed(UniformHandle u, float[] f, int n) {
+    float[] s = shadow(u, n);
+    if (s == null) return false;
+    if (u.shadowValid) {
+      int i = 0;
+      while (i < n && same(s[i], f[i])) i++;
+      if (i == n) {
+        uploadsSkipped++;
+        return false;
+      }
+    }
+    System.arraycopy(f, 0, s, 0, n);
+    u.shadowValid = true;
+    uploadsIssued++;
+    return true;
+  }
+
+  private float[] shadow(UniformHandle u, int n) {
+    if (!u.isActive()) {
+      uploadsSkipped++;
+      return null;
+    }
+    if (u.shadow == null || u.shadow.length < Math.max(n, 4)) {
+      u.shadow = new float[Math.max(n, 4)];
+      u.shadowValid = false;
+    }
+    return u.shadow;
+  }
+
+  private static boolean same(float a, float b) {
+    return Float.floatToRawIntBits(a) == Float.floatToRawIntBits(b);
   }
   
   private void display() {
@@ -77,27 +324,138 @@ public class Shader {
     System.out.println(fragmentShaderSource);
   }
   
-  private int compileAndLink(GL3 gl) {
-    // gl.glBindVertexArray(1);  // hack to stop link error, since a VAO needs to be bound for shader validation
-    String[][] sources = new String[1][1];
-    sources[0] = new String[]{ vertexShaderSource };
-    ShaderCode vertexShaderCode = new ShaderCode(GL3.GL_VERTEX_SHADER, sources.length, sources);
-    boolean compiled = vertexShaderCode.compile(gl, System.err);
-    if (!compiled)
-      System.err.println("[error] Unable to compile vertex shader: " + sources);
-    sources[0] = new String[]{ fragmentShaderSource };
-    ShaderCode fragmentShaderCode = new ShaderCode(GL3.GL_FRAGMENT_SHADER, sources.length, sources);
-    compiled = fragmentShaderCode.compile(gl, System.err);
-    if (!compiled)
-      System.err.println("[error] Unable to compile fragment shader: " + sources);
-    ShaderProgram program = new ShaderProgram();
-    program.init(gl);
-    program.add(vertexShaderCode);
-    program.add(fragmentShaderCode);
-    program.link(gl, System.out);
-    if (!program.validateProgram(gl, System.out))
-      System.err.println("[error] Unable to link program");
-    return program.program();
+  private static String addDefines(String source, String[] defines) {
+    StringBuilder sb = new StringBuilder();
+    for (String d : defines) {
+      sb.append("#define ").append(d).append('\n');
+    }
+    int start = source.indexOf("#version");
+    int end = (start < 0) ? 0 : source.indexOf('\n', start) + 1;
+    if (start >= 0 && end == 0) {   // #version is the last line
+      return source + '\n' + sb;
+    }
+    return source.substring(0, end) + sb + source.substring(end);
+  }
+
+  private static boolean isParallelCompile(GL3 gl) {
+    if (parallelCompile == null) {
+      parallelCompile = gl.isExtensionAvailable("GL_KHR_parallel_shader_compile")
+                     || gl.isExtensionAvailable("GL_ARB_parallel_shader_compile");
+    }
+    return parallelCompile;
+  }
+
+  /* Issues the compiles and the link without querying any status, which would make the driver wait */
+  private void compileAndLink(GL3 gl) {
+    vertexShaderID = compile(gl, GL3.GL_VERTEX_SHADER, vertexShaderSource);
+    fragmentShaderID = compile(gl, GL3.GL_FRAGMENT_SHADER, fragmentShaderSource);
+    ID = gl.glCreateProgram();
+    ProgramBinaryCache.prepare(gl, ID);
+    gl.glAttachShader(ID, vertexShaderID);
+    gl.glAttachShader(ID, fragmentShaderID);
+    gl.glLinkProgram(ID);
+  }
+
+  private static int compile(GL3 gl, int type, String source) {
+    int shader = gl.glCreateShader(type);
+    gl.glShaderSource(shader, 1, new String[]{ source }, null, 0);
+    gl.glCompileShader(shader);
+    return shader;
+  }
+
+  /* The program is not validated here: glValidateProgram checks the program against the 
+     current GL state (bound VAO, texture units), which is only meaningful at draw time. */
+  private void finish(GL3 gl) {
+    int[] status = new int[1];
+    gl.glGetProgramiv(ID, GL3.GL_LINK_STATUS, status, 0);
+    if (status[0] == GL.GL_FALSE) {
+      reportShader(gl, vertexShaderID, "vertex");
+      reportShader(gl, fragmentShaderID, "fragment");
+      gl.glGetProgramiv(ID, GL3.GL_INFO_LOG_LENGTH, status, 0);
+      byte[] log = new byte[Math.max(status[0], 1)];
+      gl.glGetProgramInfoLog(ID, log.length, status, 0, log, 0);
+      System.err.println("[error] Unable to link program\n" + new String(log, 0, status[0], StandardCharsets.US_ASCII));
+      deleteShaders(gl);
+      state = FAILED;
+      return;
+    }
+    deleteShaders(gl);
+    if (binaryKey != null) {
+      ProgramBinaryCache.save(gl, binaryKey, ID);
+      binaryKey = null;
+    }
+    bindBlocks(gl);
+    reflectUniforms(gl);
+    state = READY;
+  }
+
+  private static void reportShader(GL3 gl, int shader, String stage) {
+    int[] params = new int[1];
+    gl.glGetShaderiv(shader, GL3.GL_COMPILE_STATUS, params, 0);
+    if (params[0] != GL.GL_FALSE) return;
+    gl.glGetShaderiv(shader, GL3.GL_INFO_LOG_LENGTH, params, 0);
+    byte[] log = new byte[Math.max(params[0], 1)];
+    gl.glGetShaderInfoLog(shader, log.length, params, 0, log, 0);
+    System.err.println("[error] Unable to compile " + stage + " shader\n" + new String(log, 0, params[0], StandardCharsets.US_ASCII));
+  }
+
+  private void deleteShaders(GL3 gl) {
+    if (vertexShaderID != 0) {
+      if (ID != 0) gl.glDetachShader(ID, vertexShaderID);
+      gl.glDeleteShader(vertexShaderID);
+      vertexShaderID = 0;
+    }
+    if (fragmentShaderID != 0) {
+      if (ID != 0) gl.glDetachShader(ID, fragmentShaderID);
+      gl.glDeleteShader(fragmentShaderID);
+      fragmentShaderID = 0;
+    }
+  }
+
+  private void bindBlocks(GL3 gl) {
+    for (int i=0; i<BLOCK_NAMES.length; i++) {
+      int index = gl.glGetUniformBlockIndex(ID, BLOCK_NAMES[i]);
+      if (index != GL3.GL_INVALID_INDEX) gl.glUniformBlockBinding(ID, index, BLOCK_BINDINGS[i]);
+    }
+  }
+
+  /* Builds the uniform table from the program's active uniforms. Arrays of basic types are
+     reported once, as "name[0]", so each element is entered separately, and "name" is also
+     entered as an alias for element 0. Members of uniform blocks have no location and are skipped. */
+  private void reflectUniforms(GL3 gl) {
+    int[] params = new int[1];
+    gl.glGetProgramiv(ID, GL3.GL_ACTIVE_UNIFORMS, params, 0);
+    int count = params[0];
+    gl.glGetProgramiv(ID, GL3.GL_ACTIVE_UNIFORM_MAX_LENGTH, params, 0);
+    byte[] nameBytes = new byte[Math.max(params[0], 1)];
+    int[] length = new int[1];
+    int[] size = new int[1];
+    int[] type = new int[1];
+    ArrayList<UniformHandle> found = new ArrayList<UniformHandle>();
+    for (int i=0; i<count; i++) {
+      gl.glGetActiveUniform(ID, i, nameBytes.length, length, 0, size, 0, type, 0, nameBytes, 0);
+      String name = new String(nameBytes, 0, length[0], StandardCharsets.US_ASCII);
+      if (name.endsWith("[0]")) {
+        String base = name.substring(0, name.length()-3);
+        for (int e=0; e<size[0]; e++) {
+          addUniform(gl, found, base+"["+e+"]", type[0]);
+        }
+        UniformHandle first = uniformsByName.get(name);
+        if (first != null) uniformsByName.put(base, first);
+      }
+      else {
+        addUniform(gl, found, name, type[0]);
+      }
+    }
+    uniforms = found.toArray(new UniformHandle[found.size()]);
+  }
+
+  private void addUniform(GL3 gl, ArrayList<UniformHandle> found, String name, int type) {
+    int location = gl.glGetUniformLocation(ID, name);
+    if (location < 0) return;
+    UniformHandle u = new UniformHandle(name, found.size(), location, type);
+    found.add(u);
+    uniformsByName.put(name, u);
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jogamp.opengl.*;
+import com.jogamp.opengl.util.texture.*;
+
+/**
+ * Shares compiled shader programs between models. A program is compiled the first time
+ * a (vertex path, fragment path, defines) combination is acquired; later acquires of the
+ * same combination return the same Shader, so models that use the same shader also avoid
+ * a glUseProgram between their draws. Each acquire must be matched by a release, and the
+ * program is deleted when the last user releases it.
+ */
+
+public class ShaderLibrary {
+
+  public static final String STANDARD_VERTEX = "assets/shaders/vs_standard.txt";
+  public static final String STANDARD_FRAGMENT = "assets/shaders/fs_standard.txt";
+  public static final String INDIRECT_VERTEX = "assets/shaders/vs_standard_indirect.txt";
+
+  private static final Map<String,Entry> byKey = new HashMap<String,Entry>();
+  private static final Map<Shader,Entry> byShader = new HashMap<Shader,Entry>();
+
+  private ShaderLibrary() {
+  }
+
+  /**
+   * Gets the shader for the given sources and defines, compiling it if no current user has it.
+   *
+   * @param vertexPath   Path of the vertex shader source.
+   * @param fragmentPath Path of the fragment shader source.
+   * @param defines      Preprocessor defines, e.g. "NUM_TEXTURES 1", see Shader.
+   * @return  The shared shader. Pass it to release when it is no longer needed.
+   */
+  public static Shader acquire(GL3 gl, String vertexPath, String fragmentPath, String... defines) {
+    String key = key(vertexPath, fragmentPath, defines);
+    Entry e = byKey.get(key);
+    if (e == null) {
+      e = new Entry(key, new Shader(gl, vertexPath, fragmentPath, defines));
+      byKey.put(key, e);
+      byShader.put(e.shader, e);
+    }
+    e.references++;
+    return e.shader;
+  }
+
+  /**
+   * Gets the variant of the standard shader that does exactly the work a model needs:
+   * texture lookups only for the maps it has, the spotlight cone only if one of the lights
+   * is a spotlight, and LightBlock and MaterialBlock tables of the sizes Light and MaterialLibrary
+   * fill. Models with the same needs share one program, and variants nothing asks for are never
+   * compiled.
+   * A light that only becomes a spotlight later must already have its cut-off set here.
+   *
+   * @param diffuse  The diffuse map, or null to use the material's ambient and diffuse colours.
+   * @param specular The specular map, or null to use the material's specular colour.
+   * @param lights   The lights the model is lit by.
+   * @return  The shared shader. Pass it to release when it is no longer needed.
+   */
+  public static Shader acquireStandard(GL3 gl, Texture diffuse, Texture specular, Light[] lights) {
+    return acquireStandard(gl, diffuse, specular, lights, false);
+  }
+
+  /**
+   * As acquireStandard, but with instanced true gets the variant that reads the model matrix,
+   * normal matrix and material from per-instance attributes, as used by InstancedModel.
+   */
+  public static Shader acquireStandard(GL3 gl, Texture diffuse, Texture specular, Light[] lights, boolean instanced) {
+    return acquire(gl, STANDARD_VERTEX, STANDARD_FRAGMENT, standardDefines(diffuse, specular, lights, instanced));
+  }
+
+  /**
+   * As acquireStandard, but gets the variant used by IndirectRenderer, whose vertex shader reads
+   * each draw's matrices and material from a shader storage buffer. It needs GL 4.3 and
+   * GL_ARB_shader_draw_parameters, see IndirectRenderer.isSupported.
+   */
+  public static Shader acquireIndirect(GL3 gl, Texture diffuse, Texture specular, Light[] lights) {
+    return acquire(gl, INDIRECT_VERTEX, STANDARD_FRAGMENT, standardDefines(diffuse, specular, lights, false));
+  }
+
+  private static String[] standardDefines(Texture diffuse, Texture specular, Light[] lights, boolean instanced) {
+    boolean spotlights = false;
+    for (Light light : lights) {
+      if (light.getCutOff() > 0) spotlights = true;
+    }
+    ArrayList<String> defines = new ArrayList<String>();
+    if (instanced) defines.add("INSTANCED");
+    if (diffuse != null) defines.add("DIFFUSE_MAP");
+    if (specular != null) defines.add("SPECULAR_MAP");
+    if (spotlights) defines.add("SPOTLIGHTS");
+    defines.add("MAX_LIGHTS " + Light.MAX_LIGHTS);
+    defines.add("MAX_MATERIALS " + MaterialLibrary.MAX_MATERIALS);
+    return defines.toArray(new String[defines.size()]);
+  }
+
+  /**
+   * Gives up one reference to shader, deleting the program if it was the last one.
+   * A shader that did not come from the library is deleted straight away.
+   */
+  public static void release(GL3 gl, Shader shader) {
+    Entry e = byShader.get(shader);
+    if (e == null) {
+      shader.dispose(gl);
+      return;
+    }
+    if (--e.references == 0) {
+      byKey.remove(e.key);
+      byShader.remove(shader);
+      shader.dispose(gl);
+    }
+  }
+
+  /**
+   * Hands every program that is still waiting for its sources to the driver. Calling this once
+   * the scene has been built means all compiles are in flight together, so a driver that compiles
+   * in parallel can work on them at the same time, while the first frames are drawn.
+   */
+  public static void issueAll(GL3 gl) {
+    for (Entry e : byKey.values()) {
+      e.shader.issue(gl);
+    }
+  }
+
+  /* The number of distinct programs currently held */
+  public static int size() {
+    return byKey.size();
+  }
+
+  private static String key(String vertexPath, String fragmentPath, String[] defines) {
+    StringBuilder sb = new StringBuilder(vertexPath).append('\n').append(fragmentPath);
+    for (String d : defines) {
+      sb.append('\n').append(d);
+    }
+    return sb.toString();
+  }
+
+  private static class Entry {
+    final String key;
+    final Shader shader;
+    int references;
+
+    Entry(String key, Shader shader) {
+      this.key = key;
+      this.shader = shader;
+    }
+  }
+
+}
@@ -10,6 +10,7 @@ import com.jogamp.opengl.util.texture.*;
 public class Table {
 
   private ArrayList<ModelMultipleLights> parts;
+  private InstancedModel legs;   // the four legs, drawn in one call
   private Camera camera;
   private Light[] lights;
   private Texture woodTex;
@@ -36,10 +37,11 @@ public class Table {
 
     float legX = topWidth * 0.5f - legThickness * 0.5f;
     float legZ = topDepth * 0.5f - legThickness * 0.5f;
-    parts.add(makeLeg(gl, -legX, -legZ));
-    parts.add(makeLeg(gl, legX, -legZ));
-    parts.add(makeLeg(gl, -legX, legZ));
-    parts.add(makeLeg(gl, legX, legZ));
+    legs = makeLegs(gl);
+    addLeg(-legX, -legZ);
+    addLeg(legX, -legZ);
+    addLeg(-legX, legZ);
+    addLeg(legX, legZ);
   }
 
   private ModelMultipleLights makeTop(GL3 gl) {
@@ -48,30 +50,42 @@ public class Table {
     Material material = new Material(base, base, new Vec3(0.3f, 0.3f, 0.3f), 32f);
     float zPos = -roomSize * 0.5f + topDepth * 0.5f;
     float yPos = legHeight + topThickness * 0.5f;
-    Mat4 modelMatrix = new Mat4(1);
-    modelMatrix = Mat4.multiply(Mat4Transform.scale(topWidth, topThickness, topDepth), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.translate(0, yPos, zPos), modelMatrix);
-    Mesh mesh = new Mesh(gl, Cube.vertices.clone(), Cube.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
+    Mat4 modelMatrix = Mat4Transform.trs(0, yPos, zPos,  0, 0, 0,  topWidth, topThickness, topDepth);
+    Mesh mesh = GeometryLibrary.acquire(gl, Cube.vertices, Cube.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, woodTex, null, lights);
     return new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera, woodTex);
   }
 
-  private ModelMultipleLights makeLeg(GL3 gl, float xOffset, float zOffset) {
-    String name = "table_leg";
+  private InstancedModel makeLegs(GL3 gl) {
+    Mesh mesh = GeometryLibrary.acquire(gl, Cube.vertices, Cube.indices);
+    Shader shader = ShaderLibrary.acquireStandard(gl, woodTex, null, lights, true);
+    return new InstancedModel(gl, "table_leg", mesh, shader, camera, woodTex, null, 4);
+  }
+
+  private void addLeg(float xOffset, float zOffset) {
     Vec3 base = new Vec3(0.5f, 0.5f, 0.5f);
     Material material = new Material(base, base, new Vec3(0.3f, 0.3f, 0.3f), 32f);
     float zBase = -roomSize * 0.5f + topDepth * 0.5f;
-    Mat4 modelMatrix = new Mat4(1);
-    modelMatrix = Mat4.multiply(Mat4Transform.scale(legThickness, legHeight, legThickness), modelMatrix);
-    modelMatrix = Mat4.multiply(Mat4Transform.translate(xOffset, legHeight * 0.5f, zBase + zOffset), modelMatrix);
-    Mesh mesh = new Mesh(gl, Cube.vertices.clone(), Cube.indices.clone());
-    Shader shader = new Shader(gl, "assets/shaders/vs_standard.txt", "assets/shaders/fs_standard_m_1t.txt");
-    return new ModelMultipleLights(name, mesh, modelMatrix, shader, material, lights, camera, woodTex);
+    Mat4 modelMatrix = Mat4Transform.trs(xOffset, legHeight * 0.5f, zBase + zOffset,  0, 0, 0,  legThickness, legHeight, legThickness);
+    legs.addInstance(modelMatrix, material);
   }
 
   public void render(GL3 gl) {
+    render(gl, null);
+  }
+
+  /* As render, but the parts go to batch if it is not null, see IndirectRenderer */
+  public void render(GL3 gl, IndirectRenderer batch) {
+    for (ModelMultipleLights m : parts) {
+      m.submit(gl, batch);
+    }
+    legs.render(gl);
+  }
+
+  /* Makes the parts' buckets in batch ahead of the first frame, see IndirectRenderer.prepare */
+  public void prepare(GL3 gl, IndirectRenderer batch) {
     for (ModelMultipleLights m : parts) {
-      m.render(gl);
+      batch.prepare(gl, m);
     }
   }
 
@@ -79,6 +93,7 @@ public class Table {
     for (ModelMultipleLights m : parts) {
       m.dispose(gl);
     }
+    legs.dispose(gl);
     woodTex.destroy(gl);
   }
 }
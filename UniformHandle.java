@@ -0,0 +1,56 @@
+/**
+ * A uniform of a linked Shader, resolved once so that setting it needs no string work
+ * and no glGetUniformLocation call. Handles are obtained from Shader.getUniform and are
+ * only valid for the shader that created them.
+ * A uniform that is not active in the program, e.g. one the GLSL compiler optimised away,
+ * gets a handle with location -1, which OpenGL silently ignores, as it would for the name.
+ * Since a uniform keeps its value until it is set again, the handle also remembers the last
+ * value uploaded through it, and Shader skips an upload that would not change anything.
+ */
+
+public final class UniformHandle {
+
+  private final String name;
+  private final int index;
+  private final int location;
+  private final int type;
+
+  // the value last uploaded, kept by Shader so that setting the same value again costs no GL call
+  float[] shadow;
+  int intShadow;
+  boolean shadowValid;
+
+  UniformHandle(String name, int index, int location, int type) {
+    this.name = name;
+    this.index = index;
+    this.location = location;
+    this.type = type;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /* The position of this uniform in its shader's uniform table, or -1 if it is not active */
+  public int getIndex() {
+    return index;
+  }
+
+  public int getLocation() {
+    return location;
+  }
+
+  /* The GL type reported by glGetActiveUniform, e.g. GL_FLOAT_VEC3, or 0 if it is not active */
+  public int getType() {
+    return type;
+  }
+
+  public boolean isActive() {
+    return location >= 0;
+  }
+
+  public String toString() {
+    return name+"@"+location;
+  }
+
+}
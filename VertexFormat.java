@@ -0,0 +1,197 @@
+import java.nio.*;
+import com.jogamp.common.nio.*;
+import com.jogamp.opengl.*;
+
+/**
+ * How a Mesh stores its vertices and indices on the GPU. Vertices are always given to Mesh as
+ * interleaved floats (x,y,z, nx,ny,nz, s,t); the format decides how they are packed into the
+ * vertex buffer, and sets up attributes 0-2 to match. The shaders see the same inputs either way.
+ */
+
+public class VertexFormat {
+
+  public static final int INPUT_FLOATS = 8;   // x,y,z, nx,ny,nz, s,t for each vertex given to Mesh
+
+  /* 32 bytes a vertex, everything as floats */
+  public static final VertexFormat FLOATS = new VertexFormat(0, "floats", false, false);
+
+  /* 20 bytes a vertex: float position, normal packed into GL_INT_2_10_10_10_REV and half-float
+     texture coordinates. Positions stay as floats, since half floats are too coarse across the room. */
+  public static final VertexFormat COMPACT = new VertexFormat(1, "compact", true, true);
+
+  private final int id;
+  private final String name;
+  private final boolean packedNormal;
+  private final boolean halfTexCoords;
+  private final int normalOffset, texCoordOffset, stride;
+
+  private VertexFormat(int id, String name, boolean packedNormal, boolean halfTexCoords) {
+    this.id = id;
+    this.name = name;
+    this.packedNormal = packedNormal;
+    this.halfTexCoords = halfTexCoords;
+    normalOffset = 3*Float.BYTES;
+    texCoordOffset = normalOffset + (packedNormal ? Integer.BYTES : 3*Float.BYTES);
+    stride = texCoordOffset + (halfTexCoords ? 2*Short.BYTES : 2*Float.BYTES);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /* A number that identifies the format in files, see MeshFile */
+  public int getId() {
+    return id;
+  }
+
+  /* The format with the given id, or null if there is none */
+  public static VertexFormat byId(int id) {
+    if (id == FLOATS.id) return FLOATS;
+    if (id == COMPACT.id) return COMPACT;
+    return null;
+  }
+
+  /* The format with the given name, or null if there is none */
+  public static VertexFormat byName(String name) {
+    if (name.equals(FLOATS.name)) return FLOATS;
+    if (name.equals(COMPACT.name)) return COMPACT;
+    return null;
+  }
+
+  /* Bytes per vertex in the vertex buffer */
+  public int getStride() {
+    return stride;
+  }
+
+  /**
+   * Packs interleaved float vertices into this format.
+   *
+   * @param vertices x,y,z, nx,ny,nz, s,t for each vertex.
+   * @return  A direct buffer of getStride() bytes per vertex, ready to upload.
+   */
+  public ByteBuffer pack(float[] vertices) {
+    ByteBuffer bb = Buffers.newDirectByteBuffer(vertices.length/INPUT_FLOATS*stride);
+    pack(vertices, bb);
+    bb.flip();
+    return bb;
+  }
+
+  /* Packs the vertices into bb from its position, in bb's byte order, e.g. for a file */
+  public void pack(float[] vertices, ByteBuffer bb) {
+    int n = vertices.length/INPUT_FLOATS;
+    for (int i=0; i<n; i++) {
+      int v = i*INPUT_FLOATS;
+      bb.putFloat(vertices[v]).putFloat(vertices[v+1]).putFloat(vertices[v+2]);
+      if (packedNormal) {
+        bb.putInt(packNormal(vertices[v+3], vertices[v+4], vertices[v+5]));
+      }
+      else {
+        bb.putFloat(vertices[v+3]).putFloat(vertices[v+4]).putFloat(vertices[v+5]);
+      }
+      if (halfTexCoords) {
+        bb.putShort(toHalf(vertices[v+6])).putShort(toHalf(vertices[v+7]));
+      }
+      else {
+        bb.putFloat(vertices[v+6]).putFloat(vertices[v+7]);
+      }
+    }
+  }
+
+  /* Points attributes 0-2 of the bound VAO at the bound GL_ARRAY_BUFFER, whose vertices start at byte offset */
+  void setAttributes(GL3 gl, long offset) {
+    gl.glVertexAttribPointer(0, 3, GL.GL_FLOAT, false, stride, offset);
+    gl.glEnableVertexAttribArray(0);
+    if (packedNormal) {   // size must be 4 for a packed type; the shader's vec3 ignores w
+      gl.glVertexAttribPointer(1, 4, GL3.GL_INT_2_10_10_10_REV, true, stride, offset + normalOffset);
+    }
+    else {
+      gl.glVertexAttribPointer(1, 3, GL.GL_FLOAT, false, stride, offset + normalOffset);
+    }
+    gl.glEnableVertexAttribArray(1);
+    if (halfTexCoords) {
+      gl.glVertexAttribPointer(2, 2, GL.GL_HALF_FLOAT, false, stride, offset + texCoordOffset);
+    }
+    else {
+      gl.glVertexAttribPointer(2, 2, GL.GL_FLOAT, false, stride, offset + texCoordOffset);
+    }
+    gl.glEnableVertexAttribArray(2);
+  }
+
+  /* The smallest index type that can address vertexCount vertices */
+  public static int indexType(int vertexCount) {
+    if (vertexCount <= 0x100) return GL.GL_UNSIGNED_BYTE;
+    if (vertexCount <= 0x10000) return GL.GL_UNSIGNED_SHORT;
+    return GL.GL_UNSIGNED_INT;
+  }
+
+  public static int indexBytes(int indexType) {
+    switch (indexType) {
+      case GL.GL_UNSIGNED_BYTE: return 1;
+      case GL.GL_UNSIGNED_SHORT: return 2;
+      default: return 4;
+    }
+  }
+
+  /* Packs indices as indexType, in a direct buffer ready to upload */
+  public static ByteBuffer packIndices(int[] indices, int indexType) {
+    ByteBuffer bb = Buffers.newDirectByteBuffer(indices.length*indexBytes(indexType));
+    packIndices(indices, indexType, bb);
+    bb.flip();
+    return bb;
+  }
+
+  /* Packs indices as indexType into bb from its position, in bb's byte order */
+  public static void packIndices(int[] indices, int indexType, ByteBuffer bb) {
+    for (int i : indices) {
+      switch (indexType) {
+        case GL.GL_UNSIGNED_BYTE: bb.put((byte)i); break;
+        case GL.GL_UNSIGNED_SHORT: bb.putShort((short)i); break;
+        default: bb.putInt(i);
+      }
+    }
+  }
+
+  /* A unit normal as signed normalized 10-bit x, y and z, with w = 0 */
+  static int packNormal(float x, float y, float z) {
+    float length = (float)Math.sqrt(x*x + y*y + z*z);
+    if (length > 0) {
+      x /= length;
+      y /= length;
+      z /= length;
+    }
+    return snorm10(x) | snorm10(y) << 10 | snorm10(z) << 20;
+  }
+
+  private static int snorm10(float v) {
+    return Math.round(Math.max(-1f, Math.min(1f, v))*511f) & 0x3ff;
+  }
+
+  /* f as an IEEE half float, rounded to nearest; values too large for a half become infinity */
+  static short toHalf(float f) {
+    int bits = Float.floatToIntBits(f);
+    int sign = (bits >>> 16) & 0x8000;
+    int floatExp = (bits >>> 23) & 0xff;
+    int mantissa = bits & 0x7fffff;
+    if (floatExp == 0xff) {   // infinity or NaN
+      return (short)(sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+    }
+    int exp = floatExp - 127 + 15;
+    if (exp >= 31) return (short)(sign | 0x7c00);
+    if (exp <= 0) {   // a subnormal half, or zero
+      if (exp < -10) return (short)sign;
+      mantissa |= 0x800000;
+      int shift = 14 - exp;
+      int half = mantissa >> shift;
+      if (((mantissa >> (shift-1)) & 1) != 0) half++;
+      return (short)(sign | half);
+    }
+    int half = sign | exp << 10 | mantissa >> 13;
+    if ((mantissa & 0x1000) != 0) half++;   // a carry out of the mantissa correctly bumps the exponent
+    return (short)half;
+  }
+
+  public String toString() {
+    return name;
+  }
+
+}
@@ -0,0 +1,83 @@
+package bench;
+
+import gmaths.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/* 
+ * Camera lives in the default package, which cannot be imported and which JMH refuses 
+ * for benchmark classes, so it is reached through method handles. Constant (static final) 
+ * handles are inlined by the JIT, so the calls cost the same as direct ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CameraBenchmark {
+
+  private static final MethodHandle NEW_CAMERA, GET_VIEW_MATRIX, GET_PERSPECTIVE_MATRIX;
+  private static final MethodHandle SET_PERSPECTIVE_MATRIX, KEYBOARD_INPUT, UPDATE_YAW_PITCH;
+  private static final Object FORWARD, BACK;
+
+  static {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class<?> camera = Class.forName("Camera");
+      Class<?> movement = Class.forName("Camera$Movement");
+      NEW_CAMERA = lookup.findConstructor(camera, MethodType.methodType(void.class, Vec3.class, Vec3.class, Vec3.class))
+          .asType(MethodType.methodType(Object.class, Vec3.class, Vec3.class, Vec3.class));
+      GET_VIEW_MATRIX = lookup.findVirtual(camera, "getViewMatrix", MethodType.methodType(Mat4.class))
+          .asType(MethodType.methodType(Mat4.class, Object.class));
+      GET_PERSPECTIVE_MATRIX = lookup.findVirtual(camera, "getPerspectiveMatrix", MethodType.methodType(Mat4.class))
+          .asType(MethodType.methodType(Mat4.class, Object.class));
+      SET_PERSPECTIVE_MATRIX = lookup.findVirtual(camera, "setPerspectiveMatrix", MethodType.methodType(void.class, Mat4.class))
+          .asType(MethodType.methodType(void.class, Object.class, Mat4.class));
+      KEYBOARD_INPUT = lookup.findVirtual(camera, "keyboardInput", MethodType.methodType(void.class, movement))
+          .asType(MethodType.methodType(void.class, Object.class, Object.class));
+      UPDATE_YAW_PITCH = lookup.findVirtual(camera, "updateYawPitch", MethodType.methodType(void.class, float.class, float.class))
+          .asType(MethodType.methodType(void.class, Object.class, float.class, float.class));
+      FORWARD = movement.getField("FORWARD").get(null);
+      BACK = movement.getField("BACK").get(null);
+    }
+    catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private Object camera;
+
+  @Setup
+  public void setup() throws Throwable {
+    camera = (Object)NEW_CAMERA.invokeExact(new Vec3(4f,6f,15f), new Vec3(0f,5f,0f), new Vec3(0,1,0));
+    SET_PERSPECTIVE_MATRIX.invokeExact(camera, Mat4Transform.perspective(45, 1024f/768f));
+  }
+
+  @Benchmark
+  public Mat4 getViewMatrix() throws Throwable {
+    return (Mat4)GET_VIEW_MATRIX.invokeExact(camera);
+  }
+
+  @Benchmark
+  public Mat4 viewProjection() throws Throwable {
+    return Mat4.multiply((Mat4)GET_PERSPECTIVE_MATRIX.invokeExact(camera), (Mat4)GET_VIEW_MATRIX.invokeExact(camera));
+  }
+
+  @Benchmark
+  public Object keyboardInput() throws Throwable {
+    KEYBOARD_INPUT.invokeExact(camera, FORWARD);
+    KEYBOARD_INPUT.invokeExact(camera, BACK);
+    return camera;
+  }
+
+  @Benchmark
+  public Mat4 updateYawPitch() throws Throwable {
+    UPDATE_YAW_PITCH.invokeExact(camera, 0.001f, 0f);
+    UPDATE_YAW_PITCH.invokeExact(camera, -0.001f, 0f);
+    return (Mat4)GET_VIEW_MATRIX.invokeExact(camera);
+  }
+}
@@ -0,0 +1,89 @@
+package gmaths;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/* Computing many MVP matrices at once, against one Mat4 at a time */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+  @Param({"16", "256", "4096"})
+  public int count;
+
+  private Mat4 viewProj;
+  private Mat4[] models, mvps;
+  private float[] packedModels, packedMvps, columns, points, transformed;
+  private Vec3Array soaPoints;
+
+  @Setup
+  public void setup() {
+    Random r = new Random(1);
+    viewProj = Mat4.multiply(Mat4Transform.perspective(45, 1.333f), 
+                             Mat4Transform.lookAt(new Vec3(4,6,15), new Vec3(0,5,0), new Vec3(0,1,0)));
+    models = new Mat4[count];
+    mvps = new Mat4[count];
+    packedModels = new float[count*16];
+    packedMvps = new float[count*16];
+    columns = new float[count*16];
+    points = new float[count*3];
+    transformed = new float[count*3];
+    soaPoints = new Vec3Array(count);
+    for (int i=0; i<count; ++i) {
+      models[i] = Mat4Transform.trs(r.nextFloat(), r.nextFloat(), r.nextFloat(),  
+                                    r.nextFloat()*360, r.nextFloat()*360, 0,  1, 1, 1);
+      mvps[i] = new Mat4();
+      models[i].copyTo(packedModels, i*16);
+      points[i*3] = r.nextFloat();
+      points[i*3+1] = r.nextFloat();
+      points[i*3+2] = r.nextFloat();
+      soaPoints.set(i, points[i*3], points[i*3+1], points[i*3+2]);
+    }
+  }
+
+  @Benchmark
+  public Mat4[] mvpAllocating() {
+    for (int i=0; i<count; ++i) {
+      mvps[i] = Mat4.multiply(viewProj, models[i]);
+    }
+    return mvps;
+  }
+
+  @Benchmark
+  public Mat4[] mvpInPlace() {
+    for (int i=0; i<count; ++i) {
+      Mat4.multiplyInto(viewProj, models[i], mvps[i]);
+    }
+    return mvps;
+  }
+
+  @Benchmark
+  public float[] mvpBatch() {
+    Mat4Batch.multiply(viewProj, packedModels, packedMvps, count);
+    return packedMvps;
+  }
+
+  @Benchmark
+  public float[] mvpBatchToColumns() {
+    Mat4Batch.multiply(viewProj, packedModels, packedMvps, count);
+    Mat4Batch.toColumnMajor(packedMvps, columns, count);
+    return columns;
+  }
+
+  @Benchmark
+  public float[] transformPointsPacked() {
+    Vec3Batch.transformPoints(viewProj, points, transformed, count);
+    return transformed;
+  }
+
+  @Benchmark
+  public Vec3Array transformPointsSoA() {
+    soaPoints.transformPoints(viewProj);
+    return soaPoints;
+  }
+}
@@ -0,0 +1,95 @@
+package gmaths;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Mat4Benchmark {
+
+  private Mat4 a, b, dest;
+  private float[] normal;
+  private Vec3 from, to, up;
+
+  @Setup
+  public void setup() {
+    a = Mat4Transform.trs(1, 2, 3,  10, 20, 30,  1, 2, 3);
+    b = Mat4Transform.trs(-1, 0, 2,  -40, 5, 60,  0.5f, 1, 2);
+    dest = new Mat4();
+    normal = new float[9];
+    from = new Vec3(4f,6f,15f);
+    to = new Vec3(0f,5f,0f);
+    up = new Vec3(0,1,0);
+  }
+
+  @Benchmark
+  public Mat4 multiply() {
+    return Mat4.multiply(a, b);
+  }
+
+  @Benchmark
+  public Mat4 multiplyInto() {
+    return Mat4.multiplyInto(a, b, dest);
+  }
+
+  @Benchmark
+  public float[] toFloatArrayForGLSL() {
+    return a.toFloatArrayForGLSL();
+  }
+
+  /* a matrix that has not changed since its last upload */
+  @Benchmark
+  public float[] getColumnMajor() {
+    return a.getColumnMajor();
+  }
+
+  @Benchmark
+  public float[] normalMatrix() {
+    return a.normalMatrix(normal);
+  }
+
+  @Benchmark
+  public Mat4 affineInverse() {
+    return Mat4Transform.setAffineInverse(dest, a);
+  }
+
+  @Benchmark
+  public Mat4 lookAt() {
+    return Mat4Transform.lookAt(from, to, up);
+  }
+
+  @Benchmark
+  public Mat4 setLookAt() {
+    return Mat4Transform.setLookAt(dest, from, to, up);
+  }
+
+  @Benchmark
+  public Mat4 perspective() {
+    return Mat4Transform.perspective(45, 1.333f);
+  }
+
+  @Benchmark
+  public Mat4 setPerspective() {
+    return Mat4Transform.setPerspective(dest, 45, 1.333f, 0.1f, 100f);
+  }
+
+  /* the way Room built its parts before trs existed */
+  @Benchmark
+  public Mat4 chainedTRS() {
+    Mat4 m = new Mat4(1);
+    m = Mat4.multiply(Mat4Transform.scale(2, 1, 3), m);
+    m = Mat4.multiply(Mat4Transform.rotateAroundY(90), m);
+    m = Mat4.multiply(Mat4Transform.rotateAroundZ(-90), m);
+    m = Mat4.multiply(Mat4Transform.translate(-4, 2, 1), m);
+    return m;
+  }
+
+  @Benchmark
+  public Mat4 fusedTRS() {
+    return Mat4Transform.setTRS(dest, -4, 2, 1,  0, 90, -90,  2, 1, 3);
+  }
+}
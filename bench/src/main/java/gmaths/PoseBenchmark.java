@@ -0,0 +1,52 @@
+package gmaths;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/* The lamp's head joint: three chained rotations and translations, as matrices and as Transforms */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PoseBenchmark {
+
+  private Transform lower, upper, head, upperWorld, headWorld;
+  private Mat4 step, lowerJoint, upperJoint, headJoint;
+
+  @Setup
+  public void setup() {
+    lower = new Transform().setPosition(1.75f, 1.5f, -3.75f);
+    lower.rotation.setEuler(20, -30, 0);
+    upper = new Transform().setPosition(0, 1, 0);
+    upper.rotation.setEuler(40, 0, 0);
+    head = new Transform().setPosition(0, 1, 0);
+    head.rotation.setEuler(-90, 0, 0);
+    upperWorld = new Transform();
+    headWorld = new Transform();
+    step = new Mat4();
+    lowerJoint = new Mat4();
+    upperJoint = new Mat4();
+    headJoint = new Mat4();
+  }
+
+  @Benchmark
+  public Mat4 matrixChain() {
+    Mat4Transform.setTRS(lowerJoint, 1.75f, 1.5f, -3.75f,  20, -30, 0,  1, 1, 1);
+    Mat4.multiplyInto(lowerJoint, Mat4Transform.setTRS(step, 0, 1, 0,  40, 0, 0,  1, 1, 1), upperJoint);
+    return Mat4.multiplyInto(upperJoint, Mat4Transform.setTRS(step, 0, 1, 0,  -90, 0, 0,  1, 1, 1), headJoint);
+  }
+
+  @Benchmark
+  public Mat4 transformChain() {
+    Transform.combine(lower, upper, upperWorld);
+    Transform.combine(upperWorld, head, headWorld);
+    return headWorld.toMat4(headJoint);
+  }
+
+  @Benchmark
+  public Transform interpolate() {
+    return Transform.interpolate(upper, head, 0.3f, upperWorld);
+  }
+}
@@ -0,0 +1,42 @@
+package gmaths;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Vec3Benchmark {
+
+  private Vec3 a, b, dest;
+
+  @Setup
+  public void setup() {
+    a = new Vec3(1, 2, 3);
+    b = new Vec3(-3, 0.5f, 2);
+    dest = new Vec3();
+  }
+
+  @Benchmark
+  public Vec3 normalize() {
+    return Vec3.normalize(a);
+  }
+
+  @Benchmark
+  public Vec3 normalizeInto() {
+    return Vec3.normalizeInto(a, dest);
+  }
+
+  @Benchmark
+  public Vec3 crossProduct() {
+    return Vec3.crossProduct(a, b);
+  }
+
+  @Benchmark
+  public Vec3 crossProductInto() {
+    return Vec3.crossProductInto(a, b, dest);
+  }
+}
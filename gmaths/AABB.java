@@ -0,0 +1,130 @@
+package gmaths;
+
+/**
+ * A class for an axis-aligned bounding box, stored as its minimum and maximum corners.
+ */
+
+public final class AABB {
+  public final Vec3 min;
+  public final Vec3 max;
+
+  /**
+   * Constructor. Creates an empty box, which contains nothing until points are included.
+   */
+  public AABB() {
+    min = new Vec3(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+    max = new Vec3(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+  }
+
+  public AABB(Vec3 min, Vec3 max) {
+    this.min = new Vec3(min);
+    this.max = new Vec3(max);
+  }
+
+  public AABB(AABB box) {
+    this(box.min, box.max);
+  }
+
+  /**
+   * Creates the bounding box of count vertices packed in a float[], e.g. the interleaved 
+   * vertex data given to Mesh, where each vertex starts with its x,y,z position.
+   * @param vertices The vertex data.
+   * @param stride The number of floats per vertex, e.g. 8 for position, normal and texture coordinates.
+   * @param count The number of vertices.
+   * @return  The bounding box.
+   */
+  public static AABB fromPoints(float[] vertices, int stride, int count) {
+    AABB box = new AABB();
+    for (int i=0; i<count*stride; i+=stride) {
+      box.include(vertices[i], vertices[i+1], vertices[i+2]);
+    }
+    return box;
+  }
+
+  public AABB set(AABB box) {
+    min.set(box.min);
+    max.set(box.max);
+    return this;
+  }
+
+  public boolean isEmpty() {
+    return min.x > max.x || min.y > max.y || min.z > max.z;
+  }
+
+  /**
+   * Grows the box, if necessary, so that it contains the point (x,y,z).
+   * @return  This box, to allow calls to be chained.
+   */
+  public AABB include(float x, float y, float z) {
+    if (x < min.x) min.x = x;
+    if (y < min.y) min.y = y;
+    if (z < min.z) min.z = z;
+    if (x > max.x) max.x = x;
+    if (y > max.y) max.y = y;
+    if (z > max.z) max.z = z;
+    return this;
+  }
+
+  /**
+   * Grows the box, if necessary, so that it contains box b.
+   * @return  This box, to allow calls to be chained.
+   */
+  public AABB include(AABB b) {
+    include(b.min.x, b.min.y, b.min.z);
+    return include(b.max.x, b.max.y, b.max.z);
+  }
+
+  public Vec3 getCentre(Vec3 dest) {
+    return dest.set((min.x+max.x)*0.5f, (min.y+max.y)*0.5f, (min.z+max.z)*0.5f);
+  }
+
+  /**
+   * Gets the half-size of the box along each axis.
+   * @return  dest, to allow calls to be chained.
+   */
+  public Vec3 getExtent(Vec3 dest) {
+    return dest.set((max.x-min.x)*0.5f, (max.y-min.y)*0.5f, (max.z-min.z)*0.5f);
+  }
+
+  public boolean contains(Vec3 p) {
+    return p.x >= min.x && p.x <= max.x 
+        && p.y >= min.y && p.y <= max.y 
+        && p.z >= min.z && p.z <= max.z;
+  }
+
+  public boolean intersects(AABB b) {
+    return min.x <= b.max.x && max.x >= b.min.x
+        && min.y <= b.max.y && max.y >= b.min.y
+        && min.z <= b.max.z && max.z >= b.min.z;
+  }
+
+  /**
+   * Calculates the axis-aligned box that bounds this box after transformation by m, e.g. 
+   * to turn a mesh's local box into a world box using a model matrix.
+   * The centre is transformed as a point and the extent by the absolute values of the 
+   * rotation/scale part of m (Arvo's method), so only one point is transformed rather than 8 corners.
+   * dest may be the same object as this box.
+   *
+   * @param m An affine transformation matrix.
+   * @param dest The box that receives the result.
+   * @return  dest, to allow calls to be chained.
+   */
+  public AABB transform(Mat4 m, AABB dest) {
+    float cx = (min.x+max.x)*0.5f, cy = (min.y+max.y)*0.5f, cz = (min.z+max.z)*0.5f;
+    float ex = (max.x-min.x)*0.5f, ey = (max.y-min.y)*0.5f, ez = (max.z-min.z)*0.5f;
+    float ncx = m.get(0,0)*cx + m.get(0,1)*cy + m.get(0,2)*cz + m.get(0,3);
+    float ncy = m.get(1,0)*cx + m.get(1,1)*cy + m.get(1,2)*cz + m.get(1,3);
+    float ncz = m.get(2,0)*cx + m.get(2,1)*cy + m.get(2,2)*cz + m.get(2,3);
+    float nex = Math.abs(m.get(0,0))*ex + Math.abs(m.get(0,1))*ey + Math.abs(m.get(0,2))*ez;
+    float ney = Math.abs(m.get(1,0))*ex + Math.abs(m.get(1,1))*ey + Math.abs(m.get(1,2))*ez;
+    float nez = Math.abs(m.get(2,0))*ex + Math.abs(m.get(2,1))*ey + Math.abs(m.get(2,2))*ez;
+    dest.min.set(ncx-nex, ncy-ney, ncz-nez);
+    dest.max.set(ncx+nex, ncy+ney, ncz+nez);
+    return dest;
+  }
+
+  public String toString() {
+    return "min:"+min+", max:"+max;
+  }
+
+} // end of AABB class
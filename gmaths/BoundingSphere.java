@@ -0,0 +1,75 @@
+package gmaths;
+
+/**
+ * A class for a bounding sphere, stored as its centre and radius.
+ */
+
+public final class BoundingSphere {
+  public final Vec3 centre;
+  public float radius;
+
+  public BoundingSphere() {
+    this(new Vec3(), 0);
+  }
+
+  public BoundingSphere(Vec3 centre, float radius) {
+    this.centre = new Vec3(centre);
+    this.radius = radius;
+  }
+
+  /**
+   * Creates the sphere centred on box that just contains it.
+   * @return  The bounding sphere.
+   */
+  public static BoundingSphere fromAABB(AABB box) {
+    BoundingSphere s = new BoundingSphere();
+    box.getCentre(s.centre);
+    Vec3 e = box.getExtent(new Vec3());
+    s.radius = e.magnitude();
+    return s;
+  }
+
+  public BoundingSphere set(BoundingSphere s) {
+    centre.set(s.centre);
+    radius = s.radius;
+    return this;
+  }
+
+  public boolean contains(Vec3 p) {
+    float dx = p.x-centre.x, dy = p.y-centre.y, dz = p.z-centre.z;
+    return dx*dx+dy*dy+dz*dz <= radius*radius;
+  }
+
+  public boolean intersects(BoundingSphere s) {
+    float dx = s.centre.x-centre.x, dy = s.centre.y-centre.y, dz = s.centre.z-centre.z;
+    float r = radius+s.radius;
+    return dx*dx+dy*dy+dz*dz <= r*r;
+  }
+
+  /**
+   * Calculates a sphere that bounds this sphere after transformation by m. The centre is
+   * transformed as a point and the radius is scaled by the largest axis scale in m, so the
+   * result is exact for uniform scale and conservative otherwise.
+   * dest may be the same object as this sphere.
+   *
+   * @param m An affine transformation matrix.
+   * @param dest The sphere that receives the result.
+   * @return  dest, to allow calls to be chained.
+   */
+  public BoundingSphere transform(Mat4 m, BoundingSphere dest) {
+    float cx = centre.x, cy = centre.y, cz = centre.z;
+    float sx = m.get(0,0)*m.get(0,0) + m.get(1,0)*m.get(1,0) + m.get(2,0)*m.get(2,0);
+    float sy = m.get(0,1)*m.get(0,1) + m.get(1,1)*m.get(1,1) + m.get(2,1)*m.get(2,1);
+    float sz = m.get(0,2)*m.get(0,2) + m.get(1,2)*m.get(1,2) + m.get(2,2)*m.get(2,2);
+    dest.centre.set(m.get(0,0)*cx + m.get(0,1)*cy + m.get(0,2)*cz + m.get(0,3),
+                    m.get(1,0)*cx + m.get(1,1)*cy + m.get(1,2)*cz + m.get(1,3),
+                    m.get(2,0)*cx + m.get(2,1)*cy + m.get(2,2)*cz + m.get(2,3));
+    dest.radius = radius*(float)Math.sqrt(Math.max(sx, Math.max(sy, sz)));
+    return dest;
+  }
+
+  public String toString() {
+    return "centre:"+centre+", radius:"+radius;
+  }
+
+} // end of BoundingSphere class
@@ -0,0 +1,119 @@
+package gmaths;
+
+/**
+ * A class for a view frustum, i.e. the six planes (left, right, bottom, top, near, far) 
+ * bounding what a camera can see, with tests against bounding volumes for culling.
+ * The planes point inwards and are stored as four primitive arrays (one per plane coefficient)
+ * so that each test is the same short branch-free calculation repeated six times.
+ */
+
+public final class Frustum {
+
+  public enum Intersection {OUTSIDE, INTERSECT, INSIDE};
+
+  public static final int LEFT = 0, RIGHT = 1, BOTTOM = 2, TOP = 3, NEAR = 4, FAR = 5;
+
+  private final float[] a = new float[6];
+  private final float[] b = new float[6];
+  private final float[] c = new float[6];
+  private final float[] d = new float[6];
+
+  /**
+   * Creates the frustum for a combined projection x view matrix, e.g. 
+   * Mat4.multiply(camera.getPerspectiveMatrix(), camera.getViewMatrix()).
+   * The planes are then in world space. With a projection x view x model matrix they 
+   * would be in that model's local space instead.
+   *
+   * @param viewProj The combined matrix.
+   * @return  The frustum.
+   */
+  public static Frustum fromMatrix(Mat4 viewProj) {
+    return new Frustum().set(viewProj);
+  }
+
+  /**
+   * Recalculates the planes from viewProj, as for fromMatrix, without allocating.
+   * Each plane is the bottom row of the matrix plus or minus one of the other rows
+   * (Gribb and Hartmann's method).
+   *
+   * @return  This frustum, to allow calls to be chained.
+   */
+  public Frustum set(Mat4 viewProj) {
+    for (int i=0; i<6; ++i) {
+      int row = i/2;
+      float sign = (i%2 == 0) ? 1 : -1;
+      float pa = viewProj.get(3,0) + sign*viewProj.get(row,0);
+      float pb = viewProj.get(3,1) + sign*viewProj.get(row,1);
+      float pc = viewProj.get(3,2) + sign*viewProj.get(row,2);
+      float pd = viewProj.get(3,3) + sign*viewProj.get(row,3);
+      float inv = 1/(float)Math.sqrt(pa*pa+pb*pb+pc*pc);
+      a[i] = pa*inv;
+      b[i] = pb*inv;
+      c[i] = pc*inv;
+      d[i] = pd*inv;
+    }
+    return this;
+  }
+
+  /**
+   * Gets one of the six planes, e.g. Frustum.NEAR.
+   * @return  dest, to allow calls to be chained.
+   */
+  public Plane getPlane(int i, Plane dest) {
+    return dest.set(a[i], b[i], c[i], d[i]);
+  }
+
+  public boolean contains(Vec3 p) {
+    for (int i=0; i<6; ++i) {
+      if (a[i]*p.x + b[i]*p.y + c[i]*p.z + d[i] < 0) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Tests a sphere against the frustum.
+   * @return  OUTSIDE if the sphere cannot be seen, INSIDE if it is entirely within 
+   *          the frustum, otherwise INTERSECT.
+   */
+  public Intersection test(BoundingSphere s) {
+    float x = s.centre.x, y = s.centre.y, z = s.centre.z, r = s.radius;
+    boolean inside = true;
+    for (int i=0; i<6; ++i) {
+      float dist = a[i]*x + b[i]*y + c[i]*z + d[i];
+      if (dist < -r) return Intersection.OUTSIDE;
+      inside &= dist >= r;
+    }
+    return inside ? Intersection.INSIDE : Intersection.INTERSECT;
+  }
+
+  /**
+   * Tests a box against the frustum. The box is treated as a centre and extent, and 
+   * for each plane the extent is projected onto the plane normal to give the box's 
+   * radius in that direction. The test is conservative: a box near a frustum corner 
+   * may be reported as INTERSECT when it is actually just outside.
+   * @return  OUTSIDE if the box cannot be seen, INSIDE if it is entirely within 
+   *          the frustum, otherwise INTERSECT.
+   */
+  public Intersection test(AABB box) {
+    float cx = (box.min.x+box.max.x)*0.5f, cy = (box.min.y+box.max.y)*0.5f, cz = (box.min.z+box.max.z)*0.5f;
+    float ex = (box.max.x-box.min.x)*0.5f, ey = (box.max.y-box.min.y)*0.5f, ez = (box.max.z-box.min.z)*0.5f;
+    boolean inside = true;
+    for (int i=0; i<6; ++i) {
+      float dist = a[i]*cx + b[i]*cy + c[i]*cz + d[i];
+      float r = Math.abs(a[i])*ex + Math.abs(b[i])*ey + Math.abs(c[i])*ez;
+      if (dist < -r) return Intersection.OUTSIDE;
+      inside &= dist >= r;
+    }
+    return inside ? Intersection.INSIDE : Intersection.INTERSECT;
+  }
+
+  public String toString() {
+    String s = "{";
+    for (int i=0; i<6; ++i) {
+      s += "("+a[i]+","+b[i]+","+c[i]+","+d[i]+")";
+      if (i<5) s += ", ";
+    }
+    return s+"}";
+  }
+
+} // end of Frustum class
@@ -2,112 +2,238 @@ package gmaths;
 
 public class Mat4 {   // row column formulation
 
-  private float[][] values;
-  
+  final float[] values;           // row-major: element (r,c) is stored at r*4+c; Mat4Batch reads it directly
+  private float[] columns;        // column-major copy for GLSL, created on first use
+  private boolean columnsDirty = true;
+
   public Mat4() {
     this(0);
   }
-  
+
   public Mat4(float f) {
-    values = new float[4][4];
-    makeZero();
+    values = new float[16];
     for (int i=0; i<4; ++i) {
-      values[i][i] = f;
+      values[i*4+i] = f;
     }
   }
-  
+
   public Mat4(Mat4 m) {
-    this.values = new float[4][4];
-    for (int i=0; i<4; ++i) {
-      for (int j=0; j<4; ++j) {
-        this.values[i][j] = m.values[i][j];
-      }
-    }
+    this.values = new float[16];
+    System.arraycopy(m.values, 0, this.values, 0, 16);
   }
-  
+
   public void set(int r, int c, float f) {
-    values[r][c] = f;
+    values[r*4+c] = f;
+    columnsDirty = true;
   }
 
   public float get(int r, int c) {
-    return values[r][c];
+    return values[r*4+c];
+  }
+
+  /**
+   * Copies the values of m into this matrix.
+   *
+   * @param m The matrix to copy from.
+   * @return  This matrix, to allow calls to be chained.
+   */
+  public Mat4 set(Mat4 m) {
+    System.arraycopy(m.values, 0, values, 0, 16);
+    columnsDirty = true;
+    return this;
+  }
+
+  /**
+   * Copies the 16 values of this matrix, row by row, into dest starting at offset, 
+   * i.e. the layout used by Mat4Batch.
+   *
+   * @param dest   The array to copy into.
+   * @param offset The index in dest of the first value.
+   */
+  public void copyTo(float[] dest, int offset) {
+    System.arraycopy(values, 0, dest, offset, 16);
   }
-  
+
+  /**
+   * Copies 16 values, row by row, from src starting at offset into this matrix.
+   *
+   * @param src    The array to copy from.
+   * @param offset The index in src of the first value.
+   * @return  This matrix, to allow calls to be chained.
+   */
+  public Mat4 copyFrom(float[] src, int offset) {
+    System.arraycopy(src, offset, values, 0, 16);
+    columnsDirty = true;
+    return this;
+  }
+
+  /**
+   * Sets this matrix to the identity matrix.
+   *
+   * @return  This matrix, to allow calls to be chained.
+   */
+  public Mat4 setIdentity() {
+    makeZero();
+    values[0] = values[5] = values[10] = values[15] = 1;
+    return this;
+  }
+
   private void makeZero() {
-    for (int i=0; i<4; ++i) {
-      for (int j=0; j<4; ++j) {
-        values[i][j] = 0;
-      }
+    for (int i=0; i<16; ++i) {
+      values[i] = 0;
     }
+    columnsDirty = true;
   }
-  
+
   public void transpose() {
     for (int i=0; i<4; ++i) {
-      for (int j=i; j<4; ++j) {
-        float t = values[i][j];
-        values[i][j] = values[j][i];
-        values[j][i] = t;
+      for (int j=i+1; j<4; ++j) {
+        float t = values[i*4+j];
+        values[i*4+j] = values[j*4+i];
+        values[j*4+i] = t;
       }
     }
+    columnsDirty = true;
   }
-    
+
   public static Mat4 transpose(Mat4 m) {
     Mat4 a = new Mat4(m);
-    for (int i=0; i<4; ++i) {
-      for (int j=i; j<4; ++j) {
-        float t = a.values[i][j];
-        a.values[i][j] = a.values[j][i];
-        a.values[j][i] = t;
-      }
-    }
+    a.transpose();
     return a;
   }
 
   public static Mat4 multiply(Mat4 a, Mat4 b) {
-    Mat4 result = new Mat4();
-    for (int i=0; i<4; ++i) {
-      for (int j=0; j<4; ++j) {
-        for (int k=0; k<4; ++k) {
-          result.values[i][j] += a.values[i][k]*b.values[k][j];
-        }
-      }
+    return multiplyInto(a, b, new Mat4());
+  }
+
+  /**
+   * Calculates a x b and stores the result in dest, without allocating.
+   * dest may be the same object as a or b.
+   *
+   * @param a    The left-hand matrix.
+   * @param b    The right-hand matrix.
+   * @param dest The matrix that receives the result.
+   * @return  dest, to allow calls to be chained.
+   */
+  public static Mat4 multiplyInto(Mat4 a, Mat4 b, Mat4 dest) {
+    float[] x = a.values;
+    float[] y = b.values;
+    float[] d = dest.values;
+    float b00 = y[0],  b01 = y[1],  b02 = y[2],  b03 = y[3];
+    float b10 = y[4],  b11 = y[5],  b12 = y[6],  b13 = y[7];
+    float b20 = y[8],  b21 = y[9],  b22 = y[10], b23 = y[11];
+    float b30 = y[12], b31 = y[13], b32 = y[14], b33 = y[15];
+    for (int i=0; i<16; i+=4) {
+      float a0 = x[i], a1 = x[i+1], a2 = x[i+2], a3 = x[i+3];
+      d[i]   = a0*b00 + a1*b10 + a2*b20 + a3*b30;
+      d[i+1] = a0*b01 + a1*b11 + a2*b21 + a3*b31;
+      d[i+2] = a0*b02 + a1*b12 + a2*b22 + a3*b32;
+      d[i+3] = a0*b03 + a1*b13 + a2*b23 + a3*b33;
     }
-    return result;
+    dest.columnsDirty = true;
+    return dest;
+  }
+
+  /**
+   * Replaces this matrix with m x this, i.e. applies m after the current transformation.
+   *
+   * @param m The matrix to premultiply by.
+   * @return  This matrix, to allow calls to be chained.
+   */
+  public Mat4 preMultiply(Mat4 m) {
+    return multiplyInto(m, this, this);
+  }
+
+  /**
+   * Replaces this matrix with this x m, i.e. applies m before the current transformation.
+   *
+   * @param m The matrix to postmultiply by.
+   * @return  This matrix, to allow calls to be chained.
+   */
+  public Mat4 postMultiply(Mat4 m) {
+    return multiplyInto(this, m, this);
+  }
+
+  /**
+   * Calculates the normal matrix, i.e. the inverse transpose of the upper 3x3 part of this matrix,
+   * which transforms normals correctly under non-uniform scaling.
+   *
+   * @return  A new float[9] holding the normal matrix in column order, ready for a GLSL mat3.
+   */
+  public float[] normalMatrix() {
+    return normalMatrix(new float[9]);
+  }
+
+  /**
+   * Calculates the normal matrix, as for normalMatrix(), into dest. Nothing is allocated.
+   *
+   * @param dest A float[9] that receives the normal matrix in column order.
+   * @return  dest, to allow calls to be chained.
+   */
+  public float[] normalMatrix(float[] dest) {
+    float[] v = values;
+    float a00 = v[0], a01 = v[1], a02 = v[2];
+    float a10 = v[4], a11 = v[5], a12 = v[6];
+    float a20 = v[8], a21 = v[9], a22 = v[10];
+    // the inverse transpose is the cofactor matrix divided by the determinant
+    float c00 = a11*a22-a12*a21, c01 = a12*a20-a10*a22, c02 = a10*a21-a11*a20;
+    float c10 = a02*a21-a01*a22, c11 = a00*a22-a02*a20, c12 = a01*a20-a00*a21;
+    float c20 = a01*a12-a02*a11, c21 = a02*a10-a00*a12, c22 = a00*a11-a01*a10;
+    float inv = 1/(a00*c00 + a01*c01 + a02*c02);   // fails if determinant = 0
+    dest[0] = c00*inv; dest[3] = c01*inv; dest[6] = c02*inv;
+    dest[1] = c10*inv; dest[4] = c11*inv; dest[7] = c12*inv;
+    dest[2] = c20*inv; dest[5] = c21*inv; dest[8] = c22*inv;
+    return dest;
   }
 
   public float[] toFloatArrayForGLSL() {  // col by row
-    float[] f = new float[16];
-    for (int j=0; j<4; ++j) {
-      for (int i=0; i<4; ++i) {
-        f[j*4+i] = values[i][j];
+    return getColumnMajor().clone();
+  }
+
+  /**
+   * Gets the values in column order, as GLSL expects, without allocating.
+   * The column-major copy is kept with the matrix and is only transposed again after the 
+   * matrix has changed, so a matrix that stays the same from frame to frame, e.g. a static 
+   * wall's model matrix, costs nothing to upload after the first time.
+   *
+   * @return  The matrix's own column-major array. It must not be modified.
+   */
+  public float[] getColumnMajor() {
+    if (columns == null) columns = new float[16];
+    if (columnsDirty) {
+      for (int j=0; j<4; ++j) {
+        for (int i=0; i<4; ++i) {
+          columns[j*4+i] = values[i*4+j];
+        }
       }
+      columnsDirty = false;
     }
-    return f;
+    return columns;
   }
-  
+
   public String asFloatArrayForGLSL() {  // col by row
     String s = "{";
     for (int j=0; j<4; ++j) {
       for (int i=0; i<4; ++i) {
-        s += String.format("%.2f",values[i][j]);
+        s += String.format("%.2f",values[i*4+j]);
         if (!(j==3 && i==3)) s+=",";
       }
     }
     return s;
   }
-  
+
   public String toString() {
     String s = "{";
     for (int i=0; i<4; ++i) {
       s += (i==0) ? "{" : " {";
       for (int j=0; j<4; ++j) {
-        s += String.format("%.2f",values[i][j]);  
+        s += String.format("%.2f",values[i*4+j]);
         if (j<3) s += ", ";
       }
       s += (i==3) ? "}" : "},\n";
-    } 
+    }
     s += "}";
     return s;
   }
-  
-} // end of Mat4 class
\ No newline at end of file
+
+} // end of Mat4 class
@@ -0,0 +1,95 @@
+package gmaths;
+
+/**
+ * A static class for operations on many 4x4 matrices at once.
+ * Matrices are packed one after another in a float[], 16 values each, row by row, 
+ * i.e. the same layout as Mat4.copyTo. Working on flat arrays avoids one Mat4 object per 
+ * part and gives the JIT simple counted loops over primitive arrays, which it can unroll 
+ * and, where the shape allows, compile to SIMD instructions.
+ */
+
+public final class Mat4Batch {
+
+  private Mat4Batch() {
+  }
+
+  /**
+   * Calculates out[i] = a[i] x b[i] for count pairs of matrices.
+   * out may be the same array as a or b.
+   *
+   * @param a     count matrices, 16 floats each
+   * @param b     count matrices, 16 floats each
+   * @param out   receives count matrices, 16 floats each
+   * @param count The number of matrices
+   */
+  public static void multiply(float[] a, float[] b, float[] out, int count) {
+    checkLength(a, count);
+    checkLength(b, count);
+    checkLength(out, count);
+    for (int m=0; m<count*16; m+=16) {
+      multiply(a, m, b, m, out, m);
+    }
+  }
+
+  /**
+   * Calculates out[i] = m x b[i] for count matrices, e.g. a view-projection matrix 
+   * applied to many model matrices to give their MVP matrices.
+   * out may be the same array as b.
+   *
+   * @param m     The matrix that premultiplies every matrix in b
+   * @param b     count matrices, 16 floats each
+   * @param out   receives count matrices, 16 floats each
+   * @param count The number of matrices
+   */
+  public static void multiply(Mat4 m, float[] b, float[] out, int count) {
+    checkLength(b, count);
+    checkLength(out, count);
+    for (int i=0; i<count*16; i+=16) {
+      multiply(m.values, 0, b, i, out, i);
+    }
+  }
+
+  /**
+   * Transposes count row-major matrices into column order, ready to upload to GLSL 
+   * as an array of mat4, e.g. with glUniformMatrix4fv or into a buffer object.
+   * out must not be the same array as in.
+   *
+   * @param in    count matrices, 16 floats each, row by row
+   * @param out   receives count matrices, 16 floats each, column by column
+   * @param count The number of matrices
+   */
+  public static void toColumnMajor(float[] in, float[] out, int count) {
+    checkLength(in, count);
+    checkLength(out, count);
+    if (in == out) throw new IllegalArgumentException("in and out must be different arrays");
+    for (int m=0; m<count*16; m+=16) {
+      for (int r=0; r<4; ++r) {
+        out[m+r]    = in[m+r*4];
+        out[m+4+r]  = in[m+r*4+1];
+        out[m+8+r]  = in[m+r*4+2];
+        out[m+12+r] = in[m+r*4+3];
+      }
+    }
+  }
+
+  /* One 4x4 product, with b read into locals first so that d may alias a or b */
+  private static void multiply(float[] x, int xi, float[] y, int yi, float[] d, int di) {
+    float b00 = y[yi],    b01 = y[yi+1],  b02 = y[yi+2],  b03 = y[yi+3];
+    float b10 = y[yi+4],  b11 = y[yi+5],  b12 = y[yi+6],  b13 = y[yi+7];
+    float b20 = y[yi+8],  b21 = y[yi+9],  b22 = y[yi+10], b23 = y[yi+11];
+    float b30 = y[yi+12], b31 = y[yi+13], b32 = y[yi+14], b33 = y[yi+15];
+    for (int r=0; r<16; r+=4) {
+      float a0 = x[xi+r], a1 = x[xi+r+1], a2 = x[xi+r+2], a3 = x[xi+r+3];
+      d[di+r]   = a0*b00 + a1*b10 + a2*b20 + a3*b30;
+      d[di+r+1] = a0*b01 + a1*b11 + a2*b21 + a3*b31;
+      d[di+r+2] = a0*b02 + a1*b12 + a2*b22 + a3*b32;
+      d[di+r+3] = a0*b03 + a1*b13 + a2*b23 + a3*b33;
+    }
+  }
+
+  private static void checkLength(float[] f, int count) {
+    if (f.length < count*16) 
+      throw new IllegalArgumentException("array holds fewer than "+count+" matrices");
+  }
+
+} // end of Mat4Batch class
@@ -33,11 +33,24 @@ public final class Mat4Transform  {   // row column formulation
    * @return  The resulting 4x4 translation matrix, as a Mat4
    */
    public static Mat4 translate(float tx, float ty, float tz) {
-    Mat4 m = new Mat4(1);
-    m.set(0,3, tx);
-    m.set(1,3, ty);
-    m.set(2,3, tz);
-    return m;
+    return setTranslate(new Mat4(), tx, ty, tz);
+  }
+
+  /**
+   * Overwrites dest with a 4x4 translation matrix. Nothing is allocated.
+   * 
+   * @param dest The matrix that receives the result
+   * @param tx The translation amount for x
+   * @param ty The translation amount for y
+   * @param tz The translation amount for z
+   * @return  dest, to allow calls to be chained
+   */
+   public static Mat4 setTranslate(Mat4 dest, float tx, float ty, float tz) {
+    dest.setIdentity();
+    dest.set(0,3, tx);
+    dest.set(1,3, ty);
+    dest.set(2,3, tz);
+    return dest;
   }
   
   /**
@@ -59,11 +72,24 @@ public final class Mat4Transform  {   // row column formulation
    * @return  The resulting 4x4 scale matrix, as a Mat4
    */
    public static Mat4 scale(float sx, float sy, float sz) {
-    Mat4 m = new Mat4(1);
-    m.set(0,0, sx);
-    m.set(1,1, sy);
-    m.set(2,2, sz);
-    return m;
+    return setScale(new Mat4(), sx, sy, sz);
+  }
+
+  /**
+   * Overwrites dest with a 4x4 scale matrix. Nothing is allocated.
+   * 
+   * @param dest The matrix that receives the result
+   * @param sx The scale amount for x
+   * @param sy The scale amount for y
+   * @param sz The scale amount for z
+   * @return  dest, to allow calls to be chained
+   */
+   public static Mat4 setScale(Mat4 dest, float sx, float sy, float sz) {
+    dest.setIdentity();
+    dest.set(0,0, sx);
+    dest.set(1,1, sy);
+    dest.set(2,2, sz);
+    return dest;
   }
 
   /**
@@ -73,13 +99,26 @@ public final class Mat4Transform  {   // row column formulation
    * @return  The resulting 4x4 rotation matrix, as a Mat4
    */
    public static Mat4 rotateAroundX(float angle) {   // angle in degrees
-    Mat4 m = new Mat4(1);
+    return setRotateAroundX(new Mat4(), angle);
+  }
+
+  /**
+   * Overwrites dest with a 4x4 rotation matrix to rotate around the X axis. Nothing is allocated.
+   * 
+   * @param dest The matrix that receives the result
+   * @param angle The amount of rotation in degrees. Positive values indicate anticlockwise rotation.
+   * @return  dest, to allow calls to be chained
+   */
+   public static Mat4 setRotateAroundX(Mat4 dest, float angle) {   // angle in degrees
+    dest.setIdentity();
     angle = (float)(angle*Math.PI/180.0);
-    m.set(1,1, (float)Math.cos(angle));
-    m.set(1,2, -(float)Math.sin(angle));
-    m.set(2,1, (float)Math.sin(angle));
-    m.set(2,2, (float)Math.cos(angle));
-    return m;
+    float c = (float)Math.cos(angle);
+    float s = (float)Math.sin(angle);
+    dest.set(1,1, c);
+    dest.set(1,2, -s);
+    dest.set(2,1, s);
+    dest.set(2,2, c);
+    return dest;
   }
   
   /**
@@ -89,13 +128,26 @@ public final class Mat4Transform  {   // row column formulation
    * @return  The resulting 4x4 rotation matrix, as a Mat4
    */
    public static Mat4 rotateAroundY(float angle) {   // angle in degrees
-    Mat4 m = new Mat4(1);
+    return setRotateAroundY(new Mat4(), angle);
+  }
+
+  /**
+   * Overwrites dest with a 4x4 rotation matrix to rotate around the Y axis. Nothing is allocated.
+   * 
+   * @param dest The matrix that receives the result
+   * @param angle The amount of rotation in degrees. Positive values indicate anticlockwise rotation.
+   * @return  dest, to allow calls to be chained
+   */
+   public static Mat4 setRotateAroundY(Mat4 dest, float angle) {   // angle in degrees
+    dest.setIdentity();
     angle = (float)(angle*Math.PI/180.0);
-    m.set(0,0, (float)Math.cos(angle));
-    m.set(0,2, (float)Math.sin(angle));
-    m.set(2,0, -(float)Math.sin(angle));
-    m.set(2,2, (float)Math.cos(angle));
-    return m;
+    float c = (float)Math.cos(angle);
+    float s = (float)Math.sin(angle);
+    dest.set(0,0, c);
+    dest.set(0,2, s);
+    dest.set(2,0, -s);
+    dest.set(2,2, c);
+    return dest;
   }
 
   /**
@@ -105,13 +157,159 @@ public final class Mat4Transform  {   // row column formulation
    * @return  The resulting 4x4 rotation matrix, as a Mat4
    */
    public static Mat4 rotateAroundZ(float angle) {   // angle in degrees
-    Mat4 m = new Mat4(1);
+    return setRotateAroundZ(new Mat4(), angle);
+  }
+
+  /**
+   * Overwrites dest with a 4x4 rotation matrix to rotate around the Z axis. Nothing is allocated.
+   * 
+   * @param dest The matrix that receives the result
+   * @param angle The amount of rotation in degrees. Positive values indicate anticlockwise rotation.
+   * @return  dest, to allow calls to be chained
+   */
+   public static Mat4 setRotateAroundZ(Mat4 dest, float angle) {   // angle in degrees
+    dest.setIdentity();
     angle = (float)(angle*Math.PI/180.0);
-    m.set(0,0, (float)Math.cos(angle));
-    m.set(0,1, -(float)Math.sin(angle));
-    m.set(1,0, (float)Math.sin(angle));
-    m.set(1,1, (float)Math.cos(angle));
-    return m;
+    float c = (float)Math.cos(angle);
+    float s = (float)Math.sin(angle);
+    dest.set(0,0, c);
+    dest.set(0,1, -s);
+    dest.set(1,0, s);
+    dest.set(1,1, c);
+    return dest;
+  }
+  
+  /**
+   * Creates a 4x4 matrix that scales, then rotates around X, Y and Z (in that order), then translates,
+   * i.e. T x Rz x Ry x Rx x S, built directly rather than by chaining Mat4.multiply.
+   * 
+   * @param tx The translation amount for x
+   * @param ty The translation amount for y
+   * @param tz The translation amount for z
+   * @param rx The rotation around the X axis in degrees
+   * @param ry The rotation around the Y axis in degrees
+   * @param rz The rotation around the Z axis in degrees
+   * @param sx The scale amount for x
+   * @param sy The scale amount for y
+   * @param sz The scale amount for z
+   * @return  The resulting 4x4 matrix, as a Mat4
+   */
+   public static Mat4 trs(float tx, float ty, float tz, float rx, float ry, float rz, float sx, float sy, float sz) {
+    return setTRS(new Mat4(), tx, ty, tz, rx, ry, rz, sx, sy, sz);
+  }
+
+  /**
+   * Creates a 4x4 matrix that scales, then rotates around X, Y and Z (in that order), then translates.
+   * 
+   * @param t The translation amount (x,y,z)
+   * @param r The rotation around each axis in degrees (x,y,z)
+   * @param s The scale amount (x,y,z)
+   * @return  The resulting 4x4 matrix, as a Mat4
+   */
+   public static Mat4 trs(Vec3 t, Vec3 r, Vec3 s) {
+    return setTRS(new Mat4(), t.x, t.y, t.z, r.x, r.y, r.z, s.x, s.y, s.z);
+  }
+
+  /**
+   * Overwrites dest with T x Rz x Ry x Rx x S, as for trs. Nothing is allocated and 
+   * no matrix multiplication is needed. Axes with a zero angle skip their trigonometry.
+   * 
+   * @param dest The matrix that receives the result
+   * @param tx The translation amount for x
+   * @param ty The translation amount for y
+   * @param tz The translation amount for z
+   * @param rx The rotation around the X axis in degrees
+   * @param ry The rotation around the Y axis in degrees
+   * @param rz The rotation around the Z axis in degrees
+   * @param sx The scale amount for x
+   * @param sy The scale amount for y
+   * @param sz The scale amount for z
+   * @return  dest, to allow calls to be chained
+   */
+   public static Mat4 setTRS(Mat4 dest, float tx, float ty, float tz, float rx, float ry, float rz, 
+                             float sx, float sy, float sz) {
+    float cx = 1, snx = 0, cy = 1, sny = 0, cz = 1, snz = 0;
+    if (rx != 0) {
+      double a = Math.toRadians(rx);
+      cx = (float)Math.cos(a);
+      snx = (float)Math.sin(a);
+    }
+    if (ry != 0) {
+      double a = Math.toRadians(ry);
+      cy = (float)Math.cos(a);
+      sny = (float)Math.sin(a);
+    }
+    if (rz != 0) {
+      double a = Math.toRadians(rz);
+      cz = (float)Math.cos(a);
+      snz = (float)Math.sin(a);
+    }
+    dest.set(0,0, cz*cy*sx);
+    dest.set(0,1, (cz*sny*snx - snz*cx)*sy);
+    dest.set(0,2, (cz*sny*cx + snz*snx)*sz);
+    dest.set(0,3, tx);
+    dest.set(1,0, snz*cy*sx);
+    dest.set(1,1, (snz*sny*snx + cz*cx)*sy);
+    dest.set(1,2, (snz*sny*cx - cz*snx)*sz);
+    dest.set(1,3, ty);
+    dest.set(2,0, -sny*sx);
+    dest.set(2,1, cy*snx*sy);
+    dest.set(2,2, cy*cx*sz);
+    dest.set(2,3, tz);
+    dest.set(3,0, 0);
+    dest.set(3,1, 0);
+    dest.set(3,2, 0);
+    dest.set(3,3, 1);
+    return dest;
+  }
+
+  /**
+   * Creates the inverse of an affine matrix, i.e. one whose bottom row is (0,0,0,1), such as 
+   * any combination of translate, rotate and scale. Only the upper 3x3 part is inverted.
+   * The result is undefined for a projective matrix, e.g. one made by perspective.
+   * 
+   * @param m The affine matrix to invert
+   * @return  The inverse matrix, as a Mat4
+   */
+   public static Mat4 affineInverse(Mat4 m) {
+    return setAffineInverse(new Mat4(), m);
+  }
+
+  /**
+   * Overwrites dest with the inverse of the affine matrix m, as for affineInverse. Nothing is allocated.
+   * dest may be the same object as m.
+   * 
+   * @param dest The matrix that receives the result
+   * @param m The affine matrix to invert
+   * @return  dest, to allow calls to be chained
+   */
+   public static Mat4 setAffineInverse(Mat4 dest, Mat4 m) {
+    float a00 = m.get(0,0), a01 = m.get(0,1), a02 = m.get(0,2), t0 = m.get(0,3);
+    float a10 = m.get(1,0), a11 = m.get(1,1), a12 = m.get(1,2), t1 = m.get(1,3);
+    float a20 = m.get(2,0), a21 = m.get(2,1), a22 = m.get(2,2), t2 = m.get(2,3);
+    float c00 = a11*a22-a12*a21, c01 = a12*a20-a10*a22, c02 = a10*a21-a11*a20;
+    float det = a00*c00 + a01*c01 + a02*c02;   // fails if det = 0
+    float inv = 1/det;
+    float i00 = c00*inv, i01 = (a02*a21-a01*a22)*inv, i02 = (a01*a12-a02*a11)*inv;
+    float i10 = c01*inv, i11 = (a00*a22-a02*a20)*inv, i12 = (a02*a10-a00*a12)*inv;
+    float i20 = c02*inv, i21 = (a01*a20-a00*a21)*inv, i22 = (a00*a11-a01*a10)*inv;
+    dest.set(0,0, i00);
+    dest.set(0,1, i01);
+    dest.set(0,2, i02);
+    dest.set(0,3, -(i00*t0 + i01*t1 + i02*t2));
+    dest.set(1,0, i10);
+    dest.set(1,1, i11);
+    dest.set(1,2, i12);
+    dest.set(1,3, -(i10*t0 + i11*t1 + i12*t2));
+    dest.set(2,0, i20);
+    dest.set(2,1, i21);
+    dest.set(2,2, i22);
+    dest.set(2,3, -(i20*t0 + i21*t1 + i22*t2));
+    dest.set(3,0, 0);
+    dest.set(3,1, 0);
+    dest.set(3,2, 0);
+    dest.set(3,3, 1);
+    return dest;
   }
   
   /**
@@ -135,18 +333,33 @@ public final class Mat4Transform  {   // row column formulation
    * @return  The resulting perspective matrix, as a Mat4
    */
    public static Mat4 perspective(float fov, float aspect, float near, float far) {
+    return setPerspective(new Mat4(), fov, aspect, near, far);
+  }
+
+  /**
+   * Overwrites dest with a perspective matrix. Nothing is allocated.
+   * 
+   * @param dest The matrix that receives the result
+   * @param fov The field of view for the perspective.
+   * @param aspect The aspect ratio of the display area, which equals width/height.
+   * @param near The distance of the near clip plane.
+   * @param far The distance of the far clip plane.
+   * @return  dest, to allow calls to be chained
+   */
+   public static Mat4 setPerspective(Mat4 dest, float fov, float aspect, float near, float far) {
     float field = (float)Math.tan(Math.toRadians(fov*0.5f)); 
     float sx = 1/(field*aspect);
     float sy = 1/field;
     float sz = -(far+near)/(far-near);
     float pz = -(2*far*near)/(far-near);
-    Mat4 p = new Mat4(0);
-    p.set(0, 0, sx);
-    p.set(1, 1, sy);
-    p.set(2, 2, sz);
-    p.set(3, 2, -1);
-    p.set(2, 3, pz);
-    return p;
+    dest.setIdentity();
+    dest.set(0, 0, sx);
+    dest.set(1, 1, sy);
+    dest.set(2, 2, sz);
+    dest.set(3, 2, -1);
+    dest.set(2, 3, pz);
+    dest.set(3, 3, 0);
+    return dest;
   }
   
   /**
@@ -159,28 +372,48 @@ public final class Mat4Transform  {   // row column formulation
    * @return  The 4x4 viewing matrix, as a Mat4.
    */
    public static Mat4 lookAt(Vec3 from, Vec3 to, Vec3 worldup) {
-    Vec3 front = Vec3.subtract(to, from);
-    front.normalize();
-    Vec3 right = Vec3.crossProduct(front, worldup);
-    right.normalize();
-    Vec3 up = Vec3.crossProduct(right, front);
-    up.normalize();
-    Mat4 view = new Mat4(1);
-    view.set(0, 0, right.x);
-    view.set(0, 1, right.y);
-    view.set(0, 2, right.z);
-    view.set(1, 0, up.x);
-    view.set(1, 1, up.y);
-    view.set(1, 2, up.z);
-    view.set(2, 0, -front.x);
-    view.set(2, 1, -front.y);
-    view.set(2, 2, -front.z);
-    Mat4 cam = new Mat4(1);
-    cam.set(0, 3, -from.x);
-    cam.set(1, 3, -from.y);
-    cam.set(2, 3, -from.z);
-    Mat4 result = Mat4.multiply(view, cam);
-    return result;
+    return setLookAt(new Mat4(), from, to, worldup);
+  }
+
+  /**
+   * Overwrites dest with a view matrix, as for lookAt. Nothing is allocated, 
+   * since the camera basis is worked out in local variables rather than in Vec3 objects.
+   * 
+   * @param dest The matrix that receives the result
+   * @param from The camera postion.
+   * @param to The target that the camera is looking at.
+   * @param worldup The up direction for the world. 
+   * @return  dest, to allow calls to be chained
+   */
+   public static Mat4 setLookAt(Mat4 dest, Vec3 from, Vec3 to, Vec3 worldup) {
+    float fx = to.x-from.x, fy = to.y-from.y, fz = to.z-from.z;
+    float mag = (float)Math.sqrt(fx*fx+fy*fy+fz*fz);
+    fx /= mag; fy /= mag; fz /= mag;
+    float rx = fy*worldup.z-fz*worldup.y;
+    float ry = fz*worldup.x-fx*worldup.z;
+    float rz = fx*worldup.y-fy*worldup.x;
+    mag = (float)Math.sqrt(rx*rx+ry*ry+rz*rz);
+    rx /= mag; ry /= mag; rz /= mag;
+    float ux = ry*fz-rz*fy;
+    float uy = rz*fx-rx*fz;
+    float uz = rx*fy-ry*fx;
+    mag = (float)Math.sqrt(ux*ux+uy*uy+uz*uz);
+    ux /= mag; uy /= mag; uz /= mag;
+    // rotation part is the camera basis; translation part is the basis applied to -from
+    dest.setIdentity();
+    dest.set(0, 0, rx);
+    dest.set(0, 1, ry);
+    dest.set(0, 2, rz);
+    dest.set(1, 0, ux);
+    dest.set(1, 1, uy);
+    dest.set(1, 2, uz);
+    dest.set(2, 0, -fx);
+    dest.set(2, 1, -fy);
+    dest.set(2, 2, -fz);
+    dest.set(0, 3, -(rx*from.x+ry*from.y+rz*from.z));
+    dest.set(1, 3, -(ux*from.x+uy*from.y+uz*from.z));
+    dest.set(2, 3, fx*from.x+fy*from.y+fz*from.z);
+    return dest;
   }
   
 } // end of class
\ No newline at end of file
@@ -0,0 +1,66 @@
+package gmaths;
+
+/**
+ * A class for a plane, stored as the equation ax + by + cz + d = 0.
+ * (a,b,c) is the plane normal; points on the side the normal faces have a positive distance.
+ */
+
+public final class Plane {
+  public float a;
+  public float b;
+  public float c;
+  public float d;
+
+  public Plane() {
+    this(0,1,0,0);
+  }
+
+  public Plane(float a, float b, float c, float d) {
+    set(a, b, c, d);
+  }
+
+  /**
+   * Constructor. Creates the plane through point p with normal n.
+   * @param n The plane normal, which need not be normalized.
+   * @param p A point on the plane.
+   */
+  public Plane(Vec3 n, Vec3 p) {
+    this(n.x, n.y, n.z, -(n.x*p.x + n.y*p.y + n.z*p.z));
+    normalize();
+  }
+
+  public Plane set(float a, float b, float c, float d) {
+    this.a = a;
+    this.b = b;
+    this.c = c;
+    this.d = d;
+    return this;
+  }
+
+  /**
+   * Scales the equation so that the normal has unit length, which makes distance() return
+   * true distances.
+   * @return  This plane, to allow calls to be chained.
+   */
+  public Plane normalize() {
+    float mag = (float)Math.sqrt(a*a+b*b+c*c);   // fails if mag = 0
+    a /= mag;
+    b /= mag;
+    c /= mag;
+    d /= mag;
+    return this;
+  }
+
+  /**
+   * Calculates the signed distance from the plane to point p. The plane must be normalized.
+   * @return  The distance, which is positive on the side the normal faces.
+   */
+  public float distance(Vec3 p) {
+    return a*p.x + b*p.y + c*p.z + d;
+  }
+
+  public String toString() {
+    return "("+a+","+b+","+c+","+d+")";
+  }
+
+} // end of Plane class
@@ -0,0 +1,279 @@
+package gmaths;
+
+/**
+ * A class for a unit quaternion, used to represent a rotation.
+ * The components are x, y, z (the vector part) and w (the scalar part).
+ * Rotations compose by multiplication, as for matrices: a x b applies b first, then a.
+ */
+
+public final class Quat {
+  public float x;
+  public float y;
+  public float z;
+  public float w;
+
+  /**
+   * Constructor. Creates the identity rotation.
+   */
+  public Quat() {
+    this(0,0,0,1);
+  }
+
+  /**
+   * Constructor.
+   * @param x x value of the vector part.
+   * @param y y value of the vector part.
+   * @param z z value of the vector part.
+   * @param w the scalar part.
+   */
+  public Quat(float x, float y, float z, float w) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.w = w;
+  }
+
+  /**
+   * Constructor.
+   * @param q quaternion used to initialise the values of this quaternion.
+   */
+  public Quat(Quat q) {
+    this(q.x, q.y, q.z, q.w);
+  }
+
+  /**
+   * Sets the components of this quaternion.
+   * @return  This quaternion, to allow calls to be chained.
+   */
+  public Quat set(float x, float y, float z, float w) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.w = w;
+    return this;
+  }
+
+  /**
+   * Copies the components of q into this quaternion.
+   * @param q The quaternion to copy.
+   * @return  This quaternion, to allow calls to be chained.
+   */
+  public Quat set(Quat q) {
+    return set(q.x, q.y, q.z, q.w);
+  }
+
+  /**
+   * Sets this quaternion to the identity rotation.
+   * @return  This quaternion, to allow calls to be chained.
+   */
+  public Quat setIdentity() {
+    return set(0,0,0,1);
+  }
+
+  /**
+   * Sets this quaternion to a rotation around an axis.
+   * @param ax x value of the axis, which must be normalized.
+   * @param ay y value of the axis.
+   * @param az z value of the axis.
+   * @param angle The amount of rotation in degrees. Positive values indicate anticlockwise rotation.
+   * @return  This quaternion, to allow calls to be chained.
+   */
+  public Quat setAxisAngle(float ax, float ay, float az, float angle) {
+    double half = Math.toRadians(angle)*0.5;
+    float s = (float)Math.sin(half);
+    return set(ax*s, ay*s, az*s, (float)Math.cos(half));
+  }
+
+  /**
+   * Creates a rotation around an axis.
+   * @param axis The axis, which must be normalized.
+   * @param angle The amount of rotation in degrees. Positive values indicate anticlockwise rotation.
+   * @return  The rotation, as a Quat.
+   */
+  public static Quat fromAxisAngle(Vec3 axis, float angle) {
+    return new Quat().setAxisAngle(axis.x, axis.y, axis.z, angle);
+  }
+
+  /**
+   * Sets this quaternion to a rotation around X, then Y, then Z, i.e. the same rotation as
+   * Mat4Transform.trs with the same angles. Axes with a zero angle skip their trigonometry.
+   * @param rx The rotation around the X axis in degrees.
+   * @param ry The rotation around the Y axis in degrees.
+   * @param rz The rotation around the Z axis in degrees.
+   * @return  This quaternion, to allow calls to be chained.
+   */
+  public Quat setEuler(float rx, float ry, float rz) {
+    float cx = 1, sx = 0, cy = 1, sy = 0, cz = 1, sz = 0;
+    if (rx != 0) {
+      double h = Math.toRadians(rx)*0.5;
+      cx = (float)Math.cos(h);
+      sx = (float)Math.sin(h);
+    }
+    if (ry != 0) {
+      double h = Math.toRadians(ry)*0.5;
+      cy = (float)Math.cos(h);
+      sy = (float)Math.sin(h);
+    }
+    if (rz != 0) {
+      double h = Math.toRadians(rz)*0.5;
+      cz = (float)Math.cos(h);
+      sz = (float)Math.sin(h);
+    }
+    // qz x qy x qx, expanded
+    float pw = cy*cx, px = cy*sx, py = sy*cx, pz = -sy*sx;
+    return set(cz*px - sz*py, cz*py + sz*px, cz*pz + sz*pw, cz*pw - sz*pz);
+  }
+
+  /**
+   * Calculates the length of the quaternion, which is 1 for a rotation.
+   * @return  The length.
+   */
+  public float magnitude() {
+    return (float)Math.sqrt(x*x+y*y+z*z+w*w);
+  }
+
+  /**
+   * Normalizes the quaternion, e.g. to remove drift after many multiplications.
+   * @return  This quaternion, to allow calls to be chained.
+   */
+  public Quat normalize() {
+    float mag = magnitude();   // fails if mag = 0
+    x /= mag;
+    y /= mag;
+    z /= mag;
+    w /= mag;
+    return this;
+  }
+
+  /**
+   * Inverts this rotation. For a unit quaternion the inverse is the conjugate.
+   * @return  This quaternion, to allow calls to be chained.
+   */
+  public Quat conjugate() {
+    x = -x;
+    y = -y;
+    z = -z;
+    return this;
+  }
+
+  /**
+   * Calculates the dot product between quaternions a and b.
+   * @return  The result of the dot product.
+   */
+  public static float dotProduct(Quat a, Quat b) {
+    return a.x*b.x + a.y*b.y + a.z*b.z + a.w*b.w;
+  }
+
+  /**
+   * Calculates a x b, i.e. the rotation b followed by the rotation a.
+   * @return  The result, as a new Quat.
+   */
+  public static Quat multiply(Quat a, Quat b) {
+    return multiplyInto(a, b, new Quat());
+  }
+
+  /**
+   * Calculates a x b and stores the result in dest, without allocating.
+   * dest may be the same object as a or b.
+   * @return  dest, to allow calls to be chained.
+   */
+  public static Quat multiplyInto(Quat a, Quat b, Quat dest) {
+    float qx = a.w*b.x + a.x*b.w + a.y*b.z - a.z*b.y;
+    float qy = a.w*b.y - a.x*b.z + a.y*b.w + a.z*b.x;
+    float qz = a.w*b.z + a.x*b.y - a.y*b.x + a.z*b.w;
+    float qw = a.w*b.w - a.x*b.x - a.y*b.y - a.z*b.z;
+    return dest.set(qx, qy, qz, qw);
+  }
+
+  /**
+   * Rotates the vector v by this quaternion and stores the result in dest.
+   * dest may be the same object as v.
+   * @return  dest, to allow calls to be chained.
+   */
+  public Vec3 rotate(Vec3 v, Vec3 dest) {
+    // v' = v + w*t + q x t, where t = 2 * (q x v)
+    float tx = 2*(y*v.z - z*v.y);
+    float ty = 2*(z*v.x - x*v.z);
+    float tz = 2*(x*v.y - y*v.x);
+    float rx = v.x + w*tx + (y*tz - z*ty);
+    float ry = v.y + w*ty + (z*tx - x*tz);
+    float rz = v.z + w*tz + (x*ty - y*tx);
+    dest.x = rx;
+    dest.y = ry;
+    dest.z = rz;
+    return dest;
+  }
+
+  /**
+   * Spherical linear interpolation between a (t=0) and b (t=1), taking the shorter path.
+   * Falls back to normalized linear interpolation when a and b are nearly equal.
+   * dest may be the same object as a or b.
+   * @return  dest, to allow calls to be chained.
+   */
+  public static Quat slerp(Quat a, Quat b, float t, Quat dest) {
+    float cos = dotProduct(a, b);
+    float sign = 1;
+    if (cos < 0) {
+      cos = -cos;
+      sign = -1;
+    }
+    float wa, wb;
+    if (cos > 0.9995f) {
+      wa = 1-t;
+      wb = t;
+    }
+    else {
+      double theta = Math.acos(cos);
+      double sin = Math.sin(theta);
+      wa = (float)(Math.sin((1-t)*theta)/sin);
+      wb = (float)(Math.sin(t*theta)/sin);
+    }
+    wb *= sign;
+    dest.set(wa*a.x + wb*b.x, wa*a.y + wb*b.y, wa*a.z + wb*b.z, wa*a.w + wb*b.w);
+    return dest.normalize();
+  }
+
+  /**
+   * Overwrites dest with the 4x4 rotation matrix for this quaternion. Nothing is allocated.
+   * @param dest The matrix that receives the result.
+   * @return  dest, to allow calls to be chained.
+   */
+  public Mat4 toMat4(Mat4 dest) {
+    dest.setIdentity();
+    setRotation(dest, 1, 1, 1);
+    return dest;
+  }
+
+  /**
+   * Creates the 4x4 rotation matrix for this quaternion.
+   * @return  The rotation matrix, as a Mat4.
+   */
+  public Mat4 toMat4() {
+    return toMat4(new Mat4());
+  }
+
+  /* Writes R x S into the upper 3x3 part of m, leaving the rest of m untouched */
+  void setRotation(Mat4 m, float sx, float sy, float sz) {
+    float xx = x*x, yy = y*y, zz = z*z;
+    float xy = x*y, xz = x*z, yz = y*z;
+    float wx = w*x, wy = w*y, wz = w*z;
+    m.set(0,0, (1-2*(yy+zz))*sx);
+    m.set(0,1, 2*(xy-wz)*sy);
+    m.set(0,2, 2*(xz+wy)*sz);
+    m.set(1,0, 2*(xy+wz)*sx);
+    m.set(1,1, (1-2*(xx+zz))*sy);
+    m.set(1,2, 2*(yz-wx)*sz);
+    m.set(2,0, 2*(xz-wy)*sx);
+    m.set(2,1, 2*(yz+wx)*sy);
+    m.set(2,2, (1-2*(xx+yy))*sz);
+  }
+
+  /**
+   * Creates a String from the quaternion's components.
+   * @return  A String representing the quaternion.
+   */
+  public String toString() {
+    return "("+x+","+y+","+z+","+w+")";
+  }
+
+} // end of Quat class
@@ -0,0 +1,165 @@
+package gmaths;
+
+/**
+ * A compact rigid transform with scale: a position, a rotation (as a Quat) and a scale.
+ * As a matrix it is T x R x S, i.e. the same order as Mat4Transform.trs.
+ * Transforms are intended for joint hierarchies, where composing and interpolating
+ * ten floats is much cheaper than multiplying 4x4 matrices.
+ */
+
+public final class Transform {
+  public final Vec3 position;
+  public final Quat rotation;
+  public final Vec3 scale;
+
+  /**
+   * Constructor. Creates the identity transform.
+   */
+  public Transform() {
+    position = new Vec3(0,0,0);
+    rotation = new Quat();
+    scale = new Vec3(1,1,1);
+  }
+
+  /**
+   * Constructor.
+   * @param t transform used to initialise the values of this transform.
+   */
+  public Transform(Transform t) {
+    position = new Vec3(t.position);
+    rotation = new Quat(t.rotation);
+    scale = new Vec3(t.scale);
+  }
+
+  /**
+   * Copies the values of t into this transform.
+   * @return  This transform, to allow calls to be chained.
+   */
+  public Transform set(Transform t) {
+    setPosition(t.position.x, t.position.y, t.position.z);
+    rotation.set(t.rotation);
+    setScale(t.scale.x, t.scale.y, t.scale.z);
+    return this;
+  }
+
+  /**
+   * Sets this transform to the identity.
+   * @return  This transform, to allow calls to be chained.
+   */
+  public Transform setIdentity() {
+    setPosition(0,0,0);
+    rotation.setIdentity();
+    setScale(1,1,1);
+    return this;
+  }
+
+  /**
+   * Sets the position.
+   * @return  This transform, to allow calls to be chained.
+   */
+  public Transform setPosition(float x, float y, float z) {
+    position.x = x;
+    position.y = y;
+    position.z = z;
+    return this;
+  }
+
+  /**
+   * Sets the scale.
+   * @return  This transform, to allow calls to be chained.
+   */
+  public Transform setScale(float x, float y, float z) {
+    scale.x = x;
+    scale.y = y;
+    scale.z = z;
+    return this;
+  }
+
+  /**
+   * Calculates parent x child, i.e. the child transform expressed in the parent's space,
+   * and stores the result in dest. dest may be the same object as parent or child.
+   * The result is exact when the parent's scale is uniform, which is the usual case for joints.
+   * With a non-uniform parent scale and a rotated child, no T x R x S transform can represent
+   * the product (it contains shear), so the scales are simply multiplied.
+   *
+   * @param parent The outer transform.
+   * @param child  The inner transform.
+   * @param dest   The transform that receives the result.
+   * @return  dest, to allow calls to be chained.
+   */
+  public static Transform combine(Transform parent, Transform child, Transform dest) {
+    Vec3 ps = parent.scale;
+    float px = child.position.x*ps.x, py = child.position.y*ps.y, pz = child.position.z*ps.z;
+    float sx = ps.x*child.scale.x, sy = ps.y*child.scale.y, sz = ps.z*child.scale.z;
+    Quat q = parent.rotation;
+    // rotate the scaled child position by the parent rotation; see Quat.rotate
+    float tx = 2*(q.y*pz - q.z*py);
+    float ty = 2*(q.z*px - q.x*pz);
+    float tz = 2*(q.x*py - q.y*px);
+    float rx = px + q.w*tx + (q.y*tz - q.z*ty);
+    float ry = py + q.w*ty + (q.z*tx - q.x*tz);
+    float rz = pz + q.w*tz + (q.x*ty - q.y*tx);
+    Quat.multiplyInto(parent.rotation, child.rotation, dest.rotation);
+    dest.setPosition(parent.position.x + rx, parent.position.y + ry, parent.position.z + rz);
+    dest.setScale(sx, sy, sz);
+    return dest;
+  }
+
+  /**
+   * Interpolates between a (t=0) and b (t=1): positions and scales linearly, rotations by slerp.
+   * dest may be the same object as a or b.
+   * @return  dest, to allow calls to be chained.
+   */
+  public static Transform interpolate(Transform a, Transform b, float t, Transform dest) {
+    float u = 1-t;
+    dest.setPosition(u*a.position.x + t*b.position.x, u*a.position.y + t*b.position.y, u*a.position.z + t*b.position.z);
+    dest.setScale(u*a.scale.x + t*b.scale.x, u*a.scale.y + t*b.scale.y, u*a.scale.z + t*b.scale.z);
+    Quat.slerp(a.rotation, b.rotation, t, dest.rotation);
+    return dest;
+  }
+
+  /**
+   * Applies this transform to the point p and stores the result in dest.
+   * dest may be the same object as p.
+   * @return  dest, to allow calls to be chained.
+   */
+  public Vec3 transformPoint(Vec3 p, Vec3 dest) {
+    dest.x = p.x*scale.x;
+    dest.y = p.y*scale.y;
+    dest.z = p.z*scale.z;
+    rotation.rotate(dest, dest);
+    dest.add(position);
+    return dest;
+  }
+
+  /**
+   * Overwrites dest with the 4x4 matrix T x R x S for this transform. Nothing is allocated
+   * and no trigonometry is needed.
+   * @param dest The matrix that receives the result.
+   * @return  dest, to allow calls to be chained.
+   */
+  public Mat4 toMat4(Mat4 dest) {
+    rotation.setRotation(dest, scale.x, scale.y, scale.z);
+    dest.set(0,3, position.x);
+    dest.set(1,3, position.y);
+    dest.set(2,3, position.z);
+    dest.set(3,0, 0);
+    dest.set(3,1, 0);
+    dest.set(3,2, 0);
+    dest.set(3,3, 1);
+    return dest;
+  }
+
+  /**
+   * Creates the 4x4 matrix T x R x S for this transform.
+   * @return  The matrix, as a Mat4.
+   */
+  public Mat4 toMat4() {
+    return toMat4(new Mat4());
+  }
+
+  public String toString() {
+    return "p:"+position+", r:"+rotation+", s:"+scale;
+  }
+
+} // end of Transform class
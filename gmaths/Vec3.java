@@ -1,6 +1,9 @@
 package gmaths;
 
 public final class Vec3 {
+  // The *Into methods store their result in dest rather than allocating a new Vec3.
+  // dest may be the same object as any of the arguments.
+
   public float x;
   public float y;
   public float z;
@@ -21,6 +24,17 @@ public final class Vec3 {
     this.z = v.z;
   }
 
+  public Vec3 set(float x, float y, float z) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    return this;
+  }
+
+  public Vec3 set(Vec3 v) {
+    return set(v.x, v.y, v.z);
+  }
+
   public float length() {
     return magnitude();
   }
@@ -41,8 +55,12 @@ public final class Vec3 {
   }
   
   public static Vec3 normalize(Vec3 v) {
+    return normalizeInto(v, new Vec3());
+  }
+
+  public static Vec3 normalizeInto(Vec3 v, Vec3 dest) {
     float mag = magnitude(v);   // fails if mag = 0
-    return new Vec3(v.x/mag, v.y/mag, v.z/mag);
+    return dest.set(v.x/mag, v.y/mag, v.z/mag);
   }
   
   public void add(Vec3 v) {
@@ -54,6 +72,16 @@ public final class Vec3 {
   public static Vec3 add(Vec3 a, Vec3 b) {
     return new Vec3(a.x+b.x, a.y+b.y, a.z+b.z);
   }
+
+  public static Vec3 addInto(Vec3 a, Vec3 b, Vec3 dest) {
+    return dest.set(a.x+b.x, a.y+b.y, a.z+b.z);
+  }
+
+  public void addScaled(Vec3 v, float f) {   // this += v*f
+    x += v.x*f;
+    y += v.y*f;
+    z += v.z*f;
+  }
     
   public void subtract(Vec3 v) {
     x -= v.x;
@@ -64,6 +92,10 @@ public final class Vec3 {
   public static Vec3 subtract(Vec3 a, Vec3 b) {
     return new Vec3(a.x-b.x, a.y-b.y, a.z-b.z);
   } 
+
+  public static Vec3 subtractInto(Vec3 a, Vec3 b, Vec3 dest) {
+    return dest.set(a.x-b.x, a.y-b.y, a.z-b.z);
+  }
   
   public float dotProduct(Vec3 v) {
     return dotProduct(this, v);
@@ -82,10 +114,18 @@ public final class Vec3 {
   public static Vec3 multiply(Vec3 v, float f) {
     return new Vec3(v.x*f, v.y*f, v.z*f);
   }
+
+  public static Vec3 multiplyInto(Vec3 v, float f, Vec3 dest) {
+    return dest.set(v.x*f, v.y*f, v.z*f);
+  }
   
   public static Vec3 crossProduct(Vec3 a, Vec3 b) {
     return new Vec3(a.y*b.z-a.z*b.y, a.z*b.x-a.x*b.z, a.x*b.y-a.y*b.x);
   }
+
+  public static Vec3 crossProductInto(Vec3 a, Vec3 b, Vec3 dest) {
+    return dest.set(a.y*b.z-a.z*b.y, a.z*b.x-a.x*b.z, a.x*b.y-a.y*b.x);
+  }
  
   public String toString() {
     return "("+x+","+y+","+z+")";
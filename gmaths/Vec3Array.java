@@ -0,0 +1,126 @@
+package gmaths;
+
+/**
+ * A fixed-length array of 3D vectors stored as three primitive arrays (structure of arrays),
+ * so that large sets of vectors, e.g. light positions or instance offsets, never need one
+ * Vec3 object per vector. All operations work in place on an index, or on every vector.
+ */
+
+public final class Vec3Array {
+  public final float[] x;
+  public final float[] y;
+  public final float[] z;
+
+  /**
+   * Constructor. All vectors start as (0,0,0).
+   * @param length The number of vectors.
+   */
+  public Vec3Array(int length) {
+    x = new float[length];
+    y = new float[length];
+    z = new float[length];
+  }
+
+  public int length() {
+    return x.length;
+  }
+
+  public void set(int i, float vx, float vy, float vz) {
+    x[i] = vx;
+    y[i] = vy;
+    z[i] = vz;
+  }
+
+  public void set(int i, Vec3 v) {
+    set(i, v.x, v.y, v.z);
+  }
+
+  /**
+   * Copies vector i into dest, so that no Vec3 is allocated.
+   * @return  dest, to allow calls to be chained.
+   */
+  public Vec3 get(int i, Vec3 dest) {
+    return dest.set(x[i], y[i], z[i]);
+  }
+
+  public void add(int i, Vec3 v) {
+    x[i] += v.x;
+    y[i] += v.y;
+    z[i] += v.z;
+  }
+
+  public void addScaled(int i, Vec3 v, float f) {   // vector i += v*f
+    x[i] += v.x*f;
+    y[i] += v.y*f;
+    z[i] += v.z*f;
+  }
+
+  public void multiply(int i, float f) {
+    x[i] *= f;
+    y[i] *= f;
+    z[i] *= f;
+  }
+
+  public float magnitude(int i) {
+    return (float)Math.sqrt(x[i]*x[i]+y[i]*y[i]+z[i]*z[i]);
+  }
+
+  public void normalize(int i) {
+    float mag = magnitude(i);   // fails if mag = 0
+    x[i] /= mag;
+    y[i] /= mag;
+    z[i] /= mag;
+  }
+
+  public float dotProduct(int i, Vec3 v) {
+    return x[i]*v.x + y[i]*v.y + z[i]*v.z;
+  }
+
+  public float distanceSquared(int i, Vec3 p) {
+    float dx = x[i]-p.x, dy = y[i]-p.y, dz = z[i]-p.z;
+    return dx*dx+dy*dy+dz*dz;
+  }
+
+  /**
+   * Adds v to every vector, e.g. to offset a set of positions.
+   */
+  public void addAll(Vec3 v) {
+    for (int i=0; i<x.length; ++i) x[i] += v.x;
+    for (int i=0; i<y.length; ++i) y[i] += v.y;
+    for (int i=0; i<z.length; ++i) z[i] += v.z;
+  }
+
+  /**
+   * Multiplies every vector by f.
+   */
+  public void multiplyAll(float f) {
+    for (int i=0; i<x.length; ++i) x[i] *= f;
+    for (int i=0; i<y.length; ++i) y[i] *= f;
+    for (int i=0; i<z.length; ++i) z[i] *= f;
+  }
+
+  /**
+   * Transforms every vector as a point by m, i.e. m x (x,y,z,1), ignoring the projective row.
+   */
+  public void transformPoints(Mat4 m) {
+    float m00 = m.get(0,0), m01 = m.get(0,1), m02 = m.get(0,2), m03 = m.get(0,3);
+    float m10 = m.get(1,0), m11 = m.get(1,1), m12 = m.get(1,2), m13 = m.get(1,3);
+    float m20 = m.get(2,0), m21 = m.get(2,1), m22 = m.get(2,2), m23 = m.get(2,3);
+    for (int i=0; i<x.length; ++i) {
+      float px = x[i], py = y[i], pz = z[i];
+      x[i] = m00*px + m01*py + m02*pz + m03;
+      y[i] = m10*px + m11*py + m12*pz + m13;
+      z[i] = m20*px + m21*py + m22*pz + m23;
+    }
+  }
+
+  public String toString() {
+    String s = "{";
+    for (int i=0; i<x.length; ++i) {
+      s += "("+x[i]+","+y[i]+","+z[i]+")";
+      if (i<x.length-1) s += ", ";
+    }
+    return s+"}";
+  }
+
+} // end of Vec3Array class
@@ -0,0 +1,79 @@
+package gmaths;
+
+/**
+ * A static class for operations on many 3D vectors at once.
+ * Vectors are packed one after another in a float[], 3 values each (x,y,z), so that 
+ * large sets of points never need one Vec3 object per point.
+ */
+
+public final class Vec3Batch {
+
+  private Vec3Batch() {
+  }
+
+  /**
+   * Transforms count points by m, i.e. m x (x,y,z,1), ignoring the projective row.
+   * out may be the same array as points.
+   *
+   * @param m      An affine transformation matrix
+   * @param points count points, 3 floats each
+   * @param out    receives count points, 3 floats each
+   * @param count  The number of points
+   */
+  public static void transformPoints(Mat4 m, float[] points, float[] out, int count) {
+    transform(m, points, out, count, 1);
+  }
+
+  /**
+   * Transforms count directions by m, i.e. m x (x,y,z,0), so translation is ignored.
+   * The results are not normalized. out may be the same array as directions.
+   *
+   * @param m          An affine transformation matrix
+   * @param directions count directions, 3 floats each
+   * @param out        receives count directions, 3 floats each
+   * @param count      The number of directions
+   */
+  public static void transformDirections(Mat4 m, float[] directions, float[] out, int count) {
+    transform(m, directions, out, count, 0);
+  }
+
+  /**
+   * Normalizes count vectors in place. Zero length vectors are left unchanged.
+   *
+   * @param v     count vectors, 3 floats each
+   * @param count The number of vectors
+   */
+  public static void normalize(float[] v, int count) {
+    checkLength(v, count);
+    for (int i=0; i<count*3; i+=3) {
+      float x = v[i], y = v[i+1], z = v[i+2];
+      float mag2 = x*x+y*y+z*z;
+      if (mag2 > 0) {
+        float inv = (float)(1/Math.sqrt(mag2));
+        v[i] = x*inv;
+        v[i+1] = y*inv;
+        v[i+2] = z*inv;
+      }
+    }
+  }
+
+  private static void transform(Mat4 m, float[] in, float[] out, int count, float w) {
+    checkLength(in, count);
+    checkLength(out, count);
+    float m00 = m.get(0,0), m01 = m.get(0,1), m02 = m.get(0,2), m03 = m.get(0,3)*w;
+    float m10 = m.get(1,0), m11 = m.get(1,1), m12 = m.get(1,2), m13 = m.get(1,3)*w;
+    float m20 = m.get(2,0), m21 = m.get(2,1), m22 = m.get(2,2), m23 = m.get(2,3)*w;
+    for (int i=0; i<count*3; i+=3) {
+      float x = in[i], y = in[i+1], z = in[i+2];
+      out[i]   = m00*x + m01*y + m02*z + m03;
+      out[i+1] = m10*x + m11*y + m12*z + m13;
+      out[i+2] = m20*x + m21*y + m22*z + m23;
+    }
+  }
+
+  private static void checkLength(float[] f, int count) {
+    if (f.length < count*3) 
+      throw new IllegalArgumentException("array holds fewer than "+count+" vectors");
+  }
+
+} // end of Vec3Batch class
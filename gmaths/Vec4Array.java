@@ -0,0 +1,86 @@
+package gmaths;
+
+/**
+ * A fixed-length array of 4D vectors stored as four primitive arrays (structure of arrays).
+ * See Vec3Array.
+ */
+
+public final class Vec4Array {
+  public final float[] x;
+  public final float[] y;
+  public final float[] z;
+  public final float[] w;
+
+  /**
+   * Constructor. All vectors start as (0,0,0,1), as for Vec4.
+   * @param length The number of vectors.
+   */
+  public Vec4Array(int length) {
+    x = new float[length];
+    y = new float[length];
+    z = new float[length];
+    w = new float[length];
+    java.util.Arrays.fill(w, 1);
+  }
+
+  public int length() {
+    return x.length;
+  }
+
+  public void set(int i, float vx, float vy, float vz, float vw) {
+    x[i] = vx;
+    y[i] = vy;
+    z[i] = vz;
+    w[i] = vw;
+  }
+
+  public void set(int i, Vec4 v) {
+    set(i, v.x, v.y, v.z, v.w);
+  }
+
+  /**
+   * Copies vector i into dest, so that no Vec4 is allocated.
+   * @return  dest, to allow calls to be chained.
+   */
+  public Vec4 get(int i, Vec4 dest) {
+    dest.x = x[i];
+    dest.y = y[i];
+    dest.z = z[i];
+    dest.w = w[i];
+    return dest;
+  }
+
+  public void multiply(int i, float f) {
+    x[i] *= f;
+    y[i] *= f;
+    z[i] *= f;
+    w[i] *= f;
+  }
+
+  /**
+   * Transforms every vector by m, i.e. m x (x,y,z,w), including the projective row.
+   */
+  public void transform(Mat4 m) {
+    float m00 = m.get(0,0), m01 = m.get(0,1), m02 = m.get(0,2), m03 = m.get(0,3);
+    float m10 = m.get(1,0), m11 = m.get(1,1), m12 = m.get(1,2), m13 = m.get(1,3);
+    float m20 = m.get(2,0), m21 = m.get(2,1), m22 = m.get(2,2), m23 = m.get(2,3);
+    float m30 = m.get(3,0), m31 = m.get(3,1), m32 = m.get(3,2), m33 = m.get(3,3);
+    for (int i=0; i<x.length; ++i) {
+      float px = x[i], py = y[i], pz = z[i], pw = w[i];
+      x[i] = m00*px + m01*py + m02*pz + m03*pw;
+      y[i] = m10*px + m11*py + m12*pz + m13*pw;
+      z[i] = m20*px + m21*py + m22*pz + m23*pw;
+      w[i] = m30*px + m31*py + m32*pz + m33*pw;
+    }
+  }
+
+  public String toString() {
+    String s = "{";
+    for (int i=0; i<x.length; ++i) {
+      s += "("+x[i]+","+y[i]+","+z[i]+","+w[i]+")";
+      if (i<x.length-1) s += ", ";
+    }
+    return s+"}";
+  }
+
+} // end of Vec4Array class